@@ -0,0 +1,32 @@
+from argparse import ArgumentParser
+import os
+
+parser = ArgumentParser('Create lower quality representations of the video segments')
+parser.add_argument('name', help='name of the video, name-full and name-fov are read')
+parser.add_argument('crf', type=int, nargs='*', default=[23, 28],
+                    help='crf of every representation, from the best to the worst quality')
+
+args = parser.parse_args()
+
+
+def re_encode(src, dest, crf):
+    if not os.path.exists(os.path.dirname(dest)):
+        os.makedirs(os.path.dirname(dest))
+    command = "ffmpeg -i " + src + " -c:a copy -c:v libx264 -crf " + str(crf) + " -preset veryfast -y " + dest
+    print(command)
+    os.system(command)
+
+
+# representation q is stored like the video in name-q{q}-full and name-q{q}-fov
+for quality, crf in enumerate(args.crf, start=1):
+    representation = args.name + '-q' + str(quality)
+    full_path = args.name + '-full'
+    for filename in os.listdir(full_path):
+        if filename.endswith('.mp4'):
+            re_encode(os.path.join(full_path, filename), os.path.join(representation + '-full', filename), crf)
+    fov_path = args.name + '-fov'
+    for subdir in os.listdir(fov_path):
+        for filename in os.listdir(os.path.join(fov_path, subdir)):
+            if filename.endswith('.mp4'):
+                re_encode(os.path.join(fov_path, subdir, filename),
+                          os.path.join(representation + '-fov', subdir, filename), crf)
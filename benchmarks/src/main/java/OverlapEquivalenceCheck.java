@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Randomized check that the overlap kernels give the same results as the reference scan with
+ * {@link FOVMetadata#getOverlapRate(FOVMetadata)}: every overlap rate of {@link PathBatch} must be
+ * equal, not only close, and the matches of {@link PathBatch} and {@link PathIndex} must be the
+ * same paths as a linear scan. Run it after every change to the kernels.
+ *
+ * Example: java -cp benchmarks/target/benchmarks.jar OverlapEquivalenceCheck [path sets] [viewports per set] [seed]
+ */
+public class OverlapEquivalenceCheck {
+    private static final int W = FOVProtocol.FULL_SIZE_WIDTH;
+    private static final int H = FOVProtocol.FULL_SIZE_HEIGHT;
+    private static final double[] THRESHOLDS = {FOVProtocol.THRESHOLD, 0.9, 0.75, 0.5, 0.3};
+
+    private static int mismatches;
+
+    // a path or a viewport, a part of them crosses the right edge of the frame
+    private static FOVMetadata randomRect(Random random, int id, int pathId) {
+        int width = 200 + random.nextInt(W / 2);
+        int height = 200 + random.nextInt(H / 2);
+        return new FOVMetadata(id, pathId, random.nextInt(W), random.nextInt(H - height + 1), width, height);
+    }
+
+    // a viewport close to a path, so that the high thresholds also match
+    private static FOVMetadata viewportNear(Random random, FOVMetadata path, int id) {
+        int width = Math.max(1, path.getWidth() - random.nextInt(200));
+        int height = Math.max(1, path.getHeight() - random.nextInt(200));
+        int x = Math.floorMod(path.getX() + random.nextInt(161) - 80, W);
+        int y = Math.max(0, Math.min(H - height, path.getY() + random.nextInt(161) - 80));
+        return new FOVMetadata(id, FOVMetadata.EMPTY, x, y, width, height);
+    }
+
+    private static void expect(boolean same, String what, FOVMetadata viewport, Vector<FOVMetadata> paths) {
+        if (!same) {
+            mismatches++;
+            if (mismatches <= 10) {
+                System.err.println("Mismatch of " + what + " for " + viewport + " with " + paths.size() + " paths");
+            }
+        }
+    }
+
+    private static void check(Vector<FOVMetadata> paths, FOVMetadata viewport) {
+        PathBatch batch = new PathBatch(paths);
+        PathIndex index = new PathIndex(paths);
+        double[] rates = new double[paths.size()];
+        batch.overlapRates(viewport, rates);
+        for (int i = 0; i < paths.size(); i++) {
+            double expected = paths.get(i).getOverlapRate(viewport);
+            expect(batch.overlapRate(i, viewport) == expected, "overlapRate of path " + i, viewport, paths);
+            expect(rates[i] == expected, "overlapRates of path " + i, viewport, paths);
+        }
+
+        for (double threshold : THRESHOLDS) {
+            int first = FOVProtocol.FULL;
+            int[] all = new int[paths.size()];
+            int count = 0;
+            for (int i = 0; i < paths.size(); i++) {
+                if (paths.get(i).getOverlapRate(viewport) >= threshold) {
+                    if (first == FOVProtocol.FULL) {
+                        first = i;
+                    }
+                    all[count++] = i;
+                }
+            }
+            expect(batch.firstMatch(viewport, threshold) == first, "firstMatch at " + threshold, viewport, paths);
+            expect(index.match(viewport, threshold) == first, "PathIndex.match at " + threshold, viewport, paths);
+            expect(Arrays.equals(index.matchAll(viewport, threshold), Arrays.copyOf(all, count)),
+                    "PathIndex.matchAll at " + threshold, viewport, paths);
+        }
+    }
+
+    /**
+     * @param args number of path sets, number of viewports per set and seed, all optional.
+     */
+    public static void main(String[] args) {
+        int sets = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int viewports = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Random random = new Random(seed);
+
+        long pairs = 0;
+        for (int set = 0; set < sets; set++) {
+            Vector<FOVMetadata> paths = new Vector<>();
+            int size = 1 + random.nextInt(set % 10 == 0 ? 300 : 20);
+            for (int i = 0; i < size; i++) {
+                paths.add(randomRect(random, set, i));
+            }
+            for (int v = 0; v < viewports; v++) {
+                FOVMetadata viewport = random.nextBoolean()
+                        ? viewportNear(random, paths.get(random.nextInt(size)), v)
+                        : randomRect(random, v, FOVMetadata.EMPTY);
+                check(paths, viewport);
+                pairs += size;
+            }
+        }
+        System.out.println("[OVERLAP CHECK] path sets: " + sets + ", viewports: " + (long) sets * viewports
+                + ", path-viewport pairs: " + pairs + ", mismatches: " + mismatches);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import com.chichun.vros.cs.ur.bench.Workload;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Vector;
+
+/**
+ * Implementation of the benchmark workloads, in the default package so that it can reach the
+ * classes of the streaming system.
+ */
+public class StreamingWorkload implements Workload {
+    private static final String HOST = "localhost";
+    private static final int FRAME_PER_VIDEO_SEGMENT = 15;
+
+    // overlap
+    private Vector<Vector<FOVMetadata>> paths;
+    private VideoSegmentManifest.VideoSegmentMetaData[] segments;
+    private FOVMetadata[] keyFrames;
+
+    // manifest
+    private Path tempDir;
+    private File manifestFile;
+    private File binaryManifestFile;
+
+    // protocol
+    private ServerSocket ss;
+    private ServerSocketChannel sessionSocket;
+    private SessionChannel session;
+    private FOVMetadata userFov = new FOVMetadata(0, -1, 120, 552, 1224, 1224);
+    private ByteBuffer buffer = ByteBuffer.allocate(FOVCodec.FOV_METADATA_SIZE);
+
+    @Override
+    public void setupOverlap(String predFile, String traceFile) {
+        paths = VideoSegmentManifest.parsePredFile(predFile);
+        FOVTraces traces = new FOVTraces(traceFile);
+        int traceLength = 0;
+        for (FOVMetadata ignored : traces) {
+            traceLength++;
+        }
+
+        // segment i is requested with the key frame of the segment, wrap the trace when it is shorter
+        int amount = paths.size() - 1;
+        segments = new VideoSegmentManifest.VideoSegmentMetaData[amount];
+        keyFrames = new FOVMetadata[amount];
+        for (int i = 0; i < amount; i++) {
+            segments[i] = new VideoSegmentManifest.VideoSegmentMetaData(paths.get(i + 1));
+            keyFrames[i] = traces.get((i * FRAME_PER_VIDEO_SEGMENT) % traceLength);
+        }
+    }
+
+    @Override
+    public void setupManifest(String predFile) throws IOException {
+        tempDir = Files.createTempDirectory("manifest");
+        File storage = new File(tempDir.toFile(), "full");
+        storage.mkdirs();
+        int amount = VideoSegmentManifest.parsePredFile(predFile).size() - 1;
+        for (int i = 1; i <= amount; i++) {
+            new File(Utilities.getServerFullSizeSegmentName(storage.getPath(), "output", i)).createNewFile();
+        }
+        manifestFile = new File(tempDir.toFile(), "manifest.txt");
+        VideoSegmentManifest manifest = new VideoSegmentManifest(storage.getPath(), predFile);
+        manifest.write(manifestFile.getPath());
+        binaryManifestFile = new File(tempDir.toFile(), "manifest.bin");
+        BinaryManifest.write(manifest, binaryManifestFile.getPath());
+    }
+
+    @Override
+    public void setupProtocol() throws IOException {
+        ss = new ServerSocket(0);
+        sessionSocket = ServerSocketChannel.open();
+        sessionSocket.bind(new InetSocketAddress(HOST, 0));
+        startDaemon("serialize-responder", this::respondSerialize);
+        startDaemon("session-responder", this::respondSession);
+    }
+
+    private static void startDaemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // same as VRServer before sessions: a new connection for each message
+    private void respondSerialize() {
+        try {
+            while (true) {
+                TCPSerializeReceiver<FOVMetadata> receiver = new TCPSerializeReceiver<>(ss);
+                receiver.request();
+                int pathMsg = receiver.getSerializeObj().getX() % 1000;
+                receiver.getClientSock().close();
+
+                TCPSerializeSender<Integer> sender = new TCPSerializeSender<>(ss, pathMsg);
+                sender.request();
+                sender.getClientSock().close();
+            }
+        } catch (IOException | NullPointerException ignored) {
+            // closed by tearDown, TCPRequest only prints the failed accept and leaves a null socket
+        }
+    }
+
+    private void respondSession() {
+        try (SessionChannel serverSession = SessionChannel.accept(sessionSocket)) {
+            while (serverSession.receive() == SessionChannel.FOV) {
+                serverSession.sendPath(serverSession.getFOVMetadata().getX() % 1000, userFov, 0);
+            }
+        } catch (IOException ignored) {
+            // closed by tearDown
+        }
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (ss != null) {
+            ss.close();
+            sessionSocket.close();
+            ss = null;
+        }
+        if (tempDir != null) {
+            File[] files = new File(tempDir.toFile(), "full").listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            new File(tempDir.toFile(), "full").delete();
+            manifestFile.delete();
+            binaryManifestFile.delete();
+            tempDir.toFile().delete();
+            tempDir = null;
+        }
+    }
+
+    @Override
+    public double overlapRate() {
+        double sum = 0;
+        for (int i = 0; i < keyFrames.length; i++) {
+            for (FOVMetadata path : paths.get(i + 1)) {
+                sum += path.getOverlapRate(keyFrames[i]);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public int pathBatchMatch() {
+        int sum = 0;
+        for (int i = 0; i < keyFrames.length; i++) {
+            sum += segments[i].getPathBatch().firstMatch(keyFrames[i], FOVProtocol.THRESHOLD);
+        }
+        return sum;
+    }
+
+    @Override
+    public int pathIndexMatch() {
+        int sum = 0;
+        for (int i = 0; i < keyFrames.length; i++) {
+            sum += segments[i].matchPath(keyFrames[i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public Object parseManifest() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            return VideoSegmentManifest.fromJson(reader);
+        }
+    }
+
+    @Override
+    public Object openBinaryManifest() throws IOException {
+        return BinaryManifest.open(binaryManifestFile.getPath()).getSegment(1);
+    }
+
+    @Override
+    public Object parsePredFile(String predFile) {
+        return VideoSegmentManifest.parsePredFile(predFile);
+    }
+
+    @Override
+    public Object loadTraces(String traceFile) {
+        return new FOVTraces(traceFile);
+    }
+
+    @Override
+    public Object loadCachedTraces(String traceFile) {
+        return new FOVTraces(traceFile, true);
+    }
+
+    @Override
+    public int serializeRoundTrip() throws IOException {
+        TCPSerializeSender<FOVMetadata> sender = new TCPSerializeSender<>(HOST, ss.getLocalPort(), userFov);
+        sender.request();
+        sender.getClientSock().close();
+
+        TCPSerializeReceiver<Integer> receiver = new TCPSerializeReceiver<>(HOST, ss.getLocalPort());
+        receiver.request();
+        receiver.getClientSock().close();
+        return receiver.getSerializeObj();
+    }
+
+    @Override
+    public int sessionRoundTrip() throws IOException {
+        if (session == null) {
+            session = SessionChannel.connect(HOST, sessionSocket.socket().getLocalPort());
+        }
+        session.sendFOV(userFov);
+        session.receive(SessionChannel.PATH);
+        return session.getCode();
+    }
+
+    @Override
+    public int objectStreamCodec() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(userFov);
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        FOVMetadata decoded = (FOVMetadata) in.readObject();
+
+        bos = new ByteArrayOutputStream();
+        out = new ObjectOutputStream(bos);
+        out.writeObject(decoded.getX() % 1000);
+        out.flush();
+        in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        return (Integer) in.readObject();
+    }
+
+    @Override
+    public int fovCodec() {
+        buffer.clear();
+        FOVCodec.encode(userFov, buffer);
+        buffer.flip();
+        FOVMetadata decoded = FOVCodec.decodeFOVMetadata(buffer);
+
+        buffer.clear();
+        FOVCodec.encodeCode(decoded.getX() % 1000, buffer);
+        buffer.flip();
+        return FOVCodec.decodeCode(buffer);
+    }
+}
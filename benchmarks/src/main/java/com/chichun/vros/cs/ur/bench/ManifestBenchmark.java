@@ -0,0 +1,48 @@
+package com.chichun.vros.cs.ur.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manifest creation and loading: parsing the object-predicted path file, and the Gson parsing or the
+ * binary manifest mapping that VRServer and VRPlayer do before the first segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestBenchmark {
+    @Param({"storage/rhinos-pred.txt", "VideoSegmentCreator/elephant.txt"})
+    public String predFile;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workload.load();
+        workload.setupManifest(predFile);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object parsePredFile() {
+        return workload.parsePredFile(predFile);
+    }
+
+    @Benchmark
+    public Object parseManifest() throws Exception {
+        return workload.parseManifest();
+    }
+
+    @Benchmark
+    public Object openBinaryManifest() throws Exception {
+        return workload.openBinaryManifest();
+    }
+}
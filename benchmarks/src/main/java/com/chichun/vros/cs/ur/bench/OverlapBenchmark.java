@@ -0,0 +1,51 @@
+package com.chichun.vros.cs.ur.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path decision of VRServer: the key frame of every segment of a user trace against the predicted
+ * paths of the segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverlapBenchmark {
+    @Param({"storage/rhinos-pred.txt", "VideoSegmentCreator/elephant.txt"})
+    public String predFile;
+
+    @Param({"user-fov-trace.txt"})
+    public String traceFile;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workload.load();
+        workload.setupOverlap(predFile, traceFile);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public double getOverlapRate() {
+        return workload.overlapRate();
+    }
+
+    @Benchmark
+    public int pathBatch() {
+        return workload.pathBatchMatch();
+    }
+
+    @Benchmark
+    public int pathIndex() {
+        return workload.pathIndexMatch();
+    }
+}
@@ -0,0 +1,50 @@
+package com.chichun.vros.cs.ur.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One STEP 1 / STEP 3 exchange: over loopback with the one-connection-per-message
+ * TCPSerializeSender/Receiver and with a warm SessionChannel, and the message encoding alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workload.load();
+        workload.setupProtocol();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public int serializeRoundTrip() throws Exception {
+        return workload.serializeRoundTrip();
+    }
+
+    @Benchmark
+    public int sessionRoundTrip() throws Exception {
+        return workload.sessionRoundTrip();
+    }
+
+    @Benchmark
+    public int objectStreamCodec() throws Exception {
+        return workload.objectStreamCodec();
+    }
+
+    @Benchmark
+    public int fovCodec() {
+        return workload.fovCodec();
+    }
+}
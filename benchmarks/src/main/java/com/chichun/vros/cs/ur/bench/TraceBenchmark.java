@@ -0,0 +1,36 @@
+package com.chichun.vros.cs.ur.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a user fov trace file with FOVTraces, parsed from text or mapped from its binary cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+    @Param({"user-fov-trace.txt", "VideoSegmentCreator/user-fov-trace.txt"})
+    public String traceFile;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() {
+        workload = Workload.load();
+    }
+
+    @Benchmark
+    public Object loadTraces() {
+        return workload.loadTraces(traceFile);
+    }
+
+    @Benchmark
+    public Object loadCachedTraces() {
+        return workload.loadCachedTraces(traceFile);
+    }
+}
@@ -0,0 +1,135 @@
+package com.chichun.vros.cs.ur.bench;
+
+/**
+ * The streaming system lives in the default package, which JMH benchmarks cannot import. The
+ * benchmarks drive it through this interface instead, implemented by the default-package class
+ * StreamingWorkload of this module. Only the setup goes through reflection.
+ */
+public interface Workload {
+
+    /**
+     * Load a predicted path file and a user fov trace for the overlap benchmarks.
+     *
+     * @param predFile  object-predicted path file, such as storage/rhinos-pred.txt.
+     * @param traceFile user fov trace file.
+     */
+    void setupOverlap(String predFile, String traceFile) throws Exception;
+
+    /**
+     * Write a json manifest and its binary form of the predicted path file into a temporary directory.
+     *
+     * @param predFile object-predicted path file.
+     */
+    void setupManifest(String predFile) throws Exception;
+
+    /**
+     * Start a loopback responder that answers every fov metadata with a path decision.
+     */
+    void setupProtocol() throws Exception;
+
+    /**
+     * Release sockets, threads and temporary files.
+     */
+    void tearDown() throws Exception;
+
+    /**
+     * Score every trace viewport against every path of its segment with FOVMetadata.getOverlapRate.
+     *
+     * @return sum of the overlap rates.
+     */
+    double overlapRate();
+
+    /**
+     * Decide the path of every trace viewport by scanning the PathBatch of its segment.
+     *
+     * @return sum of the decisions.
+     */
+    int pathBatchMatch();
+
+    /**
+     * Decide the path of every trace viewport with the PathIndex of its segment.
+     *
+     * @return sum of the decisions.
+     */
+    int pathIndexMatch();
+
+    /**
+     * Parse the json manifest written by {@link #setupManifest(String)} with Gson.
+     *
+     * @return the manifest.
+     */
+    Object parseManifest() throws Exception;
+
+    /**
+     * Map the binary manifest written by {@link #setupManifest(String)} and decode its first segment.
+     *
+     * @return the first segment.
+     */
+    Object openBinaryManifest() throws Exception;
+
+    /**
+     * Parse the predicted path file with VideoSegmentManifest.parsePredFile.
+     *
+     * @param predFile object-predicted path file.
+     * @return the parsed paths.
+     */
+    Object parsePredFile(String predFile);
+
+    /**
+     * Load a user fov trace file with FOVTraces.
+     *
+     * @param traceFile user fov trace file.
+     * @return the traces.
+     */
+    Object loadTraces(String traceFile);
+
+    /**
+     * Load a user fov trace file with FOVTraces from its binary cache, which is written on first use.
+     *
+     * @param traceFile user fov trace file.
+     * @return the traces.
+     */
+    Object loadCachedTraces(String traceFile);
+
+    /**
+     * One STEP 1 and STEP 3 exchange over loopback with TCPSerializeSender and TCPSerializeReceiver,
+     * one new connection per message as VRPlayer used to do.
+     *
+     * @return the path decision.
+     */
+    int serializeRoundTrip() throws Exception;
+
+    /**
+     * One STEP 1 and STEP 3 exchange over a warm SessionChannel on loopback.
+     *
+     * @return the path decision.
+     */
+    int sessionRoundTrip() throws Exception;
+
+    /**
+     * Encode and decode one fov metadata and one path code with object streams in memory.
+     *
+     * @return the decoded path code.
+     */
+    int objectStreamCodec() throws Exception;
+
+    /**
+     * Encode and decode one fov metadata and one path code with FOVCodec in memory.
+     *
+     * @return the decoded path code.
+     */
+    int fovCodec();
+
+    /**
+     * Instantiate the default-package implementation.
+     *
+     * @return a new workload.
+     */
+    static Workload load() {
+        try {
+            return (Workload) Class.forName("StreamingWorkload").newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,6 +3,7 @@
 #include <string.h>
 
 #define SEEK_DEFAULT_POS -1
+#define MAX_COMMAND_LENGTH 4096
 
 /* Structure to contain all our information, so we can pass it around */
 typedef struct _CustomData {
@@ -16,12 +17,17 @@ typedef struct _CustomData {
 
 /* Forward definition of the message processing function */
 static void handle_message (CustomData *data, GstMessage *msg);
+static int run_daemon (void);
 
 /**
  * Usage: ./render <uri> <start_frame> <end_frame>
  * start_frame and end_frame should be a number >= 0 for seek
  * if end_frame == -1 then it indicates the end of seek position
  * should not be set.
+ *
+ * Usage: ./render --daemon
+ * Keep one process, playbin and video sink and play the segments read from stdin back to back,
+ * see run_daemon.
  */
 int main(int argc, char *argv[]) {
   CustomData data;
@@ -32,7 +38,10 @@ int main(int argc, char *argv[]) {
   gint64 start_frame;
   gint64 end_frame;
 
-  if (argc == 4) {
+  if (argc == 2 && strcmp(argv[1], "--daemon") == 0) {
+	  gst_init (&argc, &argv);
+	  return run_daemon ();
+  } else if (argc == 4) {
 	  uri = argv[1]; 
 	  start_frame = (gint64) strtol (argv[2], NULL, 10) * 1000 / 30;
 	  if (strcmp(argv[3], "-1") != 0)
@@ -142,6 +151,117 @@ int main(int argc, char *argv[]) {
   return 0;
 }
 
+/* In daemon mode stdout only carries the replies, the logs go to stderr */
+static void print_to_stderr (const gchar *string) {
+  fputs (string, stderr);
+}
+
+/* Play one segment on the already built playbin, block until its end. Returns FALSE on error. */
+static gboolean play_segment (GstElement *playbin, GstBus *bus, const char *uri, gint64 start_ms, gint64 end_ms) {
+  GstMessage *msg;
+  gboolean ok = TRUE;
+
+  /* READY keeps playbin and the video sink, but a new uri tears down uridecodebin, so the source,
+   * demuxer and decoder are rebuilt and prerolled again for every segment */
+  gst_element_set_state (playbin, GST_STATE_READY);
+  /* drop the messages left by the last segment, an error of a failed preroll for example */
+  gst_bus_set_flushing (bus, TRUE);
+  gst_bus_set_flushing (bus, FALSE);
+  g_object_set (playbin, "uri", uri, NULL);
+
+  /* seek while paused, so no frame before the start frame is shown */
+  if (gst_element_set_state (playbin, GST_STATE_PAUSED) == GST_STATE_CHANGE_FAILURE
+      || gst_element_get_state (playbin, NULL, NULL, GST_CLOCK_TIME_NONE) == GST_STATE_CHANGE_FAILURE) {
+    g_printerr ("Unable to pause %s\n", uri);
+    return FALSE;
+  }
+  if (start_ms > 0 || end_ms != SEEK_DEFAULT_POS) {
+    gst_element_seek (playbin,
+        1.0,
+        GST_FORMAT_TIME,
+        GST_SEEK_FLAG_FLUSH | GST_SEEK_FLAG_ACCURATE,
+        GST_SEEK_TYPE_SET,
+        start_ms * GST_MSECOND,
+        end_ms == SEEK_DEFAULT_POS ? GST_SEEK_TYPE_NONE : GST_SEEK_TYPE_SET,
+        end_ms == SEEK_DEFAULT_POS ? SEEK_DEFAULT_POS : end_ms * GST_MSECOND);
+    gst_element_get_state (playbin, NULL, NULL, GST_CLOCK_TIME_NONE);
+  }
+  if (gst_element_set_state (playbin, GST_STATE_PLAYING) == GST_STATE_CHANGE_FAILURE) {
+    g_printerr ("Unable to play %s\n", uri);
+    return FALSE;
+  }
+
+  msg = gst_bus_timed_pop_filtered (bus, GST_CLOCK_TIME_NONE, GST_MESSAGE_ERROR | GST_MESSAGE_EOS);
+  if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_ERROR) {
+    GError *err;
+    gchar *debug_info;
+    gst_message_parse_error (msg, &err, &debug_info);
+    g_printerr ("Error received from element %s: %s\n", GST_OBJECT_NAME (msg->src), err->message);
+    g_printerr ("Debugging information: %s\n", debug_info ? debug_info : "none");
+    g_clear_error (&err);
+    g_free (debug_info);
+    ok = FALSE;
+  }
+  gst_message_unref (msg);
+  return ok;
+}
+
+/**
+ * Daemon mode, driven by VRPlayer through stdin and stdout, one command per line:
+ *   play <start_frame> <end_frame> <uri>   play a segment, end_frame -1 for the end of the file
+ *   quit                                   exit
+ * Every play is answered with "done" or "error", once playbin and the sink are built "ready" is written.
+ * Commands that arrive while a segment plays wait in the pipe, so the segments play back to back.
+ * Only the process start and the sink creation are saved per segment, the decoder chain is not kept warm.
+ */
+static int run_daemon (void) {
+  GstElement *playbin;
+  GstElement *sink;
+  GstBus *bus;
+  char line[MAX_COMMAND_LENGTH];
+
+  g_set_print_handler (print_to_stderr);
+
+  playbin = gst_element_factory_make ("playbin", "playbin");
+  if (!playbin) {
+    g_printerr ("Not all elements could be created.\n");
+    return -1;
+  }
+  /* for Jetson tx2 to play 4k video */
+  sink = gst_element_factory_make ("nveglglessink", NULL);
+  g_object_set (playbin, "video-sink", sink, NULL);
+  bus = gst_element_get_bus (playbin);
+
+  printf ("ready\n");
+  fflush (stdout);
+
+  while (fgets (line, sizeof (line), stdin) != NULL) {
+    long start_frame;
+    long end_frame;
+    int uri_offset = 0;
+
+    line[strcspn (line, "\r\n")] = '\0';
+    if (strcmp (line, "quit") == 0) {
+      break;
+    }
+    if (sscanf (line, "play %ld %ld %n", &start_frame, &end_frame, &uri_offset) != 2 || uri_offset == 0) {
+      g_printerr ("Unknown command: %s\n", line);
+      printf ("error unknown command\n");
+    } else if (play_segment (playbin, bus, line + uri_offset, (gint64) start_frame * 1000 / 30,
+        end_frame == -1 ? SEEK_DEFAULT_POS : (gint64) end_frame * 1000 / 30)) {
+      printf ("done\n");
+    } else {
+      printf ("error %s\n", line + uri_offset);
+    }
+    fflush (stdout);
+  }
+
+  gst_object_unref (bus);
+  gst_element_set_state (playbin, GST_STATE_NULL);
+  gst_object_unref (playbin);
+  return 0;
+}
+
 static void handle_message (CustomData *data, GstMessage *msg) {
   GError *err;
   gchar *debug_info;
@@ -0,0 +1,43 @@
+/**
+ * Throughput estimate of VRPlayer, fed by the timings of the segment downloads. The estimate drives
+ * the quality chosen for every segment, see {@link QualitySelector}.
+ */
+public interface BandwidthEstimator {
+    // system property of VRPlayer choosing the estimator, see fromSpec
+    String PROPERTY = "svr.abr";
+    String DEFAULT_SPEC = "ewma";
+
+    /**
+     * Observe a finished download.
+     *
+     * @param bytes number of downloaded bytes.
+     * @param nanos duration of the download.
+     */
+    void sample(long bytes, long nanos);
+
+    /**
+     * Estimate the throughput of the next download.
+     *
+     * @return bytes per second, 0 if nothing is observed yet.
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Create an estimator.
+     *
+     * @param spec "ewma", "harmonic" or "none".
+     * @return the estimator, or null for "none".
+     */
+    static BandwidthEstimator fromSpec(String spec) {
+        switch (spec) {
+            case "none":
+                return null;
+            case "ewma":
+                return new EwmaBandwidthEstimator();
+            case "harmonic":
+                return new HarmonicBandwidthEstimator();
+            default:
+                throw new IllegalArgumentException("Unknown bandwidth estimator: " + spec);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact binary form of a manifest that is memory-mapped and decoded one video segment at a time,
+ * so opening it takes the same time and heap for any length of video.
+ *
+ * Layout, all numbers are big-endian:
+ * | int magic | int version | int segment amount | long offset of segment 1..amount | long end |
+ * followed by one record per segment:
+ * | int path count | paths encoded by FOVCodec | int key frame count, -1 without GOPIndex |
+ * | long header size | long file size | (int key frame, long byte offset) per key frame |
+ * | long full size, -1 if unknown | long fov segment size per path, -1 if unknown |
+ * | int lower quality representation count | (long full size, long fov segment size per path) per representation |
+ * Version 1 files have no sizes, version 2 files have no lower quality representations.
+ */
+public class BinaryManifest implements SegmentManifest {
+    private static final int MAGIC = 0x5356524d;    // "SVRM"
+    private static final int VERSION = 3;
+    private static final int VERSION_WITHOUT_SIZES = 1;
+    private static final int VERSION_WITHOUT_REPRESENTATIONS = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int NO_GOP_INDEX = -1;
+
+    private MappedByteBuffer buffer;
+    private int version;
+    private int segmentAmount;
+    // decoded segments indexed by segment id, so the path index is built once without a lock on the decisions
+    private AtomicReferenceArray<VideoSegmentManifest.VideoSegmentMetaData> decoded;
+
+    private BinaryManifest(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary manifest");
+        }
+        this.version = buffer.getInt(4);
+        if (version < VERSION_WITHOUT_SIZES || version > VERSION) {
+            throw new IOException("Unsupported binary manifest version: " + version);
+        }
+        this.segmentAmount = buffer.getInt(8);
+        if (HEADER_SIZE + 8L * (segmentAmount + 1) > buffer.limit()) {
+            throw new IOException("Broken binary manifest, segment amount: " + segmentAmount);
+        }
+        this.decoded = new AtomicReferenceArray<>(segmentAmount + 1);
+    }
+
+    /**
+     * Map a binary manifest file, only the header is read.
+     *
+     * @param path path of the binary manifest.
+     * @return the mapped manifest.
+     * @throws IOException when the file cannot be mapped or is not a binary manifest.
+     */
+    public static BinaryManifest open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return new BinaryManifest(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public int getVideoSegmentAmount() {
+        return segmentAmount;
+    }
+
+    @Override
+    public VideoSegmentManifest.VideoSegmentMetaData getSegment(int segId) {
+        if (segId < 1 || segId > segmentAmount) {
+            throw new IndexOutOfBoundsException("Segment " + segId + " of " + segmentAmount);
+        }
+        VideoSegmentManifest.VideoSegmentMetaData segment = decoded.get(segId);
+        if (segment == null) {
+            // sessions that race on a new segment decode it each, all of them use the first one stored
+            decoded.compareAndSet(segId, null, decode(segId));
+            segment = decoded.get(segId);
+        }
+        return segment;
+    }
+
+    private VideoSegmentManifest.VideoSegmentMetaData decode(int segId) {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) record.getLong(HEADER_SIZE + 8 * (segId - 1)));
+
+        int pathCount = record.getInt();
+        Vector<FOVMetadata> pathVec = new Vector<>(pathCount);
+        for (int i = 0; i < pathCount; i++) {
+            pathVec.add(FOVCodec.decodeFOVMetadata(record));
+        }
+
+        GOPIndex gopIndex = null;
+        int keyFrameCount = record.getInt();
+        if (keyFrameCount != NO_GOP_INDEX) {
+            long headerSize = record.getLong();
+            long fileSize = record.getLong();
+            int[] keyFrames = new int[keyFrameCount];
+            long[] offsets = new long[keyFrameCount];
+            for (int i = 0; i < keyFrameCount; i++) {
+                keyFrames[i] = record.getInt();
+                offsets[i] = record.getLong();
+            }
+            gopIndex = new GOPIndex(headerSize, fileSize, keyFrames, offsets);
+        }
+        if (version == VERSION_WITHOUT_SIZES) {
+            return new VideoSegmentManifest.VideoSegmentMetaData(pathVec, gopIndex);
+        }
+
+        long fullSize = Math.max(0, record.getLong());
+        long[] pathSizes = decodePathSizes(record, pathCount);
+        if (version == VERSION_WITHOUT_REPRESENTATIONS) {
+            return new VideoSegmentManifest.VideoSegmentMetaData(pathVec, gopIndex, pathSizes, fullSize);
+        }
+
+        Vector<VideoSegmentManifest.Representation> representations = null;
+        int representationCount = record.getInt();
+        if (representationCount > 0) {
+            representations = new Vector<>(representationCount);
+            for (int i = 0; i < representationCount; i++) {
+                long representationFullSize = Math.max(0, record.getLong());
+                representations.add(new VideoSegmentManifest.Representation(decodePathSizes(record, pathCount),
+                        representationFullSize));
+            }
+        }
+        return new VideoSegmentManifest.VideoSegmentMetaData(pathVec, gopIndex, pathSizes, fullSize, representations);
+    }
+
+    // null if the size of every path is unknown
+    private static long[] decodePathSizes(ByteBuffer record, int pathCount) {
+        long[] pathSizes = new long[pathCount];
+        boolean known = false;
+        for (int i = 0; i < pathCount; i++) {
+            pathSizes[i] = record.getLong();
+            known |= pathSizes[i] >= 0;
+        }
+        return known ? pathSizes : null;
+    }
+
+    /**
+     * Write a manifest in the binary form.
+     *
+     * @param manifest the manifest to convert.
+     * @param path     path of the binary manifest.
+     * @throws IOException when the file cannot be written.
+     */
+    public static void write(SegmentManifest manifest, String path) throws IOException {
+        int amount = manifest.getVideoSegmentAmount();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(amount);
+
+            long offset = HEADER_SIZE + 8L * (amount + 1);
+            for (int segId = 1; segId <= amount; segId++) {
+                out.writeLong(offset);
+                offset += recordSize(manifest.getSegment(segId));
+            }
+            out.writeLong(offset);
+
+            ByteBuffer pathBuffer = ByteBuffer.allocate(FOVCodec.FOV_METADATA_SIZE);
+            for (int segId = 1; segId <= amount; segId++) {
+                VideoSegmentManifest.VideoSegmentMetaData segment = manifest.getSegment(segId);
+                Vector<FOVMetadata> pathVec = segment.getPathVec() != null ? segment.getPathVec() : new Vector<>();
+                out.writeInt(pathVec.size());
+                for (FOVMetadata fovPath : pathVec) {
+                    pathBuffer.clear();
+                    FOVCodec.encode(fovPath, pathBuffer);
+                    out.write(pathBuffer.array());
+                }
+
+                GOPIndex gopIndex = segment.getGopIndex();
+                if (gopIndex == null) {
+                    out.writeInt(NO_GOP_INDEX);
+                } else {
+                    out.writeInt(gopIndex.getKeyFrames().length);
+                    out.writeLong(gopIndex.getHeaderSize());
+                    out.writeLong(gopIndex.getFileSize());
+                    for (int i = 0; i < gopIndex.getKeyFrames().length; i++) {
+                        out.writeInt(gopIndex.getKeyFrames()[i]);
+                        out.writeLong(gopIndex.getOffsets()[i]);
+                    }
+                }
+
+                out.writeLong(segment.getFullSize());
+                for (int pathId = 0; pathId < pathVec.size(); pathId++) {
+                    out.writeLong(segment.getPathSize(pathId));
+                }
+
+                out.writeInt(segment.getQualityCount() - 1);
+                for (int quality = 1; quality < segment.getQualityCount(); quality++) {
+                    out.writeLong(segment.getFullSize(quality));
+                    for (int pathId = 0; pathId < pathVec.size(); pathId++) {
+                        out.writeLong(segment.getPathSize(pathId, quality));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long recordSize(VideoSegmentManifest.VideoSegmentMetaData segment) {
+        int pathCount = segment.getPathVec() != null ? segment.getPathVec().size() : 0;
+        long size = 4 + (long) pathCount * FOVCodec.FOV_METADATA_SIZE + 4 + 8 + 8L * pathCount + 4
+                + (segment.getQualityCount() - 1) * (8 + 8L * pathCount);
+        if (segment.getGopIndex() != null) {
+            size += 16 + 12L * segment.getGopIndex().getKeyFrames().length;
+        }
+        return size;
+    }
+
+    /**
+     * Convert a json manifest into the binary form.
+     * Example: java BinaryManifest rhino-manifest.txt rhino-manifest.bin
+     *
+     * @param args command line args.
+     */
+    public static void main(String[] args) {
+        try (Reader reader = new BufferedReader(new FileReader(args[0]))) {
+            write(VideoSegmentManifest.fromJson(reader), args[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
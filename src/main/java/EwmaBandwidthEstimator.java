@@ -0,0 +1,62 @@
+/**
+ * Two exponentially weighted moving averages of the throughput, a fast one and a slow one, weighted
+ * by the duration of every download. The estimate is the lower of the two, so it drops as soon as
+ * the link gets congested and only rises once the link stays fast.
+ */
+public class EwmaBandwidthEstimator implements BandwidthEstimator {
+    private static final double DEFAULT_FAST_HALF_LIFE = 2;     // seconds
+    private static final double DEFAULT_SLOW_HALF_LIFE = 5;
+
+    private final Average fast;
+    private final Average slow;
+
+    public EwmaBandwidthEstimator() {
+        this(DEFAULT_FAST_HALF_LIFE, DEFAULT_SLOW_HALF_LIFE);
+    }
+
+    /**
+     * Create an estimator.
+     *
+     * @param fastHalfLife seconds of downloads after which a sample weighs half in the fast average.
+     * @param slowHalfLife seconds of downloads after which a sample weighs half in the slow average.
+     */
+    public EwmaBandwidthEstimator(double fastHalfLife, double slowHalfLife) {
+        this.fast = new Average(fastHalfLife);
+        this.slow = new Average(slowHalfLife);
+    }
+
+    @Override
+    public void sample(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        double seconds = nanos / 1e9;
+        fast.add(seconds, bytes / seconds);
+        slow.add(seconds, bytes / seconds);
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return Math.min(fast.get(), slow.get());
+    }
+
+    private static class Average {
+        private final double alpha;     // weight that the average keeps after one second of downloads
+        private double value;
+        private double totalWeight;     // weight of all the samples, corrects the bias towards 0 of the start
+
+        Average(double halfLife) {
+            this.alpha = Math.pow(0.5, 1 / halfLife);
+        }
+
+        void add(double seconds, double bytesPerSecond) {
+            double keep = Math.pow(alpha, seconds);
+            value = keep * value + (1 - keep) * bytesPerSecond;
+            totalWeight = keep * totalWeight + (1 - keep);
+        }
+
+        double get() {
+            return totalWeight == 0 ? 0 : value / totalWeight;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-layout binary encoding of FOVMetadata and FOVProtocol codes. All fields are big-endian ints
+ * written in declaration order, so a FOVMetadata always takes {@link #FOV_METADATA_SIZE} bytes.
+ */
+public class FOVCodec {
+    public static final int FOV_METADATA_SIZE = 24;
+    public static final int CODE_SIZE = 4;
+
+    /**
+     * Write a fov metadata at the current position of the buffer.
+     *
+     * @param metadata fov metadata to encode.
+     * @param buffer   buffer with at least {@link #FOV_METADATA_SIZE} bytes remaining.
+     */
+    public static void encode(FOVMetadata metadata, ByteBuffer buffer) {
+        buffer.putInt(metadata.getId());
+        buffer.putInt(metadata.getPathId());
+        buffer.putInt(metadata.getX());
+        buffer.putInt(metadata.getY());
+        buffer.putInt(metadata.getWidth());
+        buffer.putInt(metadata.getHeight());
+    }
+
+    /**
+     * Read a fov metadata from the current position of the buffer.
+     *
+     * @param buffer buffer with at least {@link #FOV_METADATA_SIZE} bytes remaining.
+     * @return decoded fov metadata.
+     */
+    public static FOVMetadata decodeFOVMetadata(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        int pathId = buffer.getInt();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        return new FOVMetadata(id, pathId, x, y, width, height);
+    }
+
+    /**
+     * Write a protocol code such as a path id, FULL, GOOD or BAD.
+     *
+     * @param code   protocol code.
+     * @param buffer buffer with at least {@link #CODE_SIZE} bytes remaining.
+     */
+    public static void encodeCode(int code, ByteBuffer buffer) {
+        buffer.putInt(code);
+    }
+
+    /**
+     * Read a protocol code.
+     *
+     * @param buffer buffer with at least {@link #CODE_SIZE} bytes remaining.
+     * @return protocol code.
+     * @throws IllegalArgumentException when the code is not defined in FOVProtocol.
+     */
+    public static int decodeCode(ByteBuffer buffer) {
+        int code = buffer.getInt();
+        if (code != FOVProtocol.GOOD && code != FOVProtocol.BAD && !FOVProtocol.isFull(code)
+                && !FOVProtocol.isFOV(code)) {
+            throw new IllegalArgumentException("Wrong protocol code: " + code);
+        }
+        return code;
+    }
+}
@@ -4,7 +4,7 @@ import java.io.Serializable;
  * Container of the fov metadata of a video segment.
  */
 public class FOVMetadata implements Serializable {
-    private static final int EMPTY = -1;    // VRPlayer do not need to pass pathId to server, so just leave it EMPTY in pathID
+    static final int EMPTY = -1;            // VRPlayer do not need to pass pathId to server, so just leave it EMPTY in pathID
     private int id;                         // indicate the time unit
     private int pathId;                     // indicate which path or segment, start from 0, -1 indicate EMPTY
     private int x;
@@ -12,6 +12,25 @@ public class FOVMetadata implements Serializable {
     private int width;
     private int height;
 
+    /**
+     * Construct FOVMetadata object with all of its fields, used when decoding it from the network.
+     *
+     * @param id     sequential identifier of the metadata.
+     * @param pathId path id, or EMPTY if the metadata is a user fov.
+     * @param x      x coordinate of the viewport.
+     * @param y      y coordinate of the viewport.
+     * @param width  width of the viewport.
+     * @param height height of the viewport.
+     */
+    FOVMetadata(int id, int pathId, int x, int y, int width, int height) {
+        this.id = id;
+        this.pathId = pathId;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
     /**
      * Construct FOVMetadata object by parsing a string line.
      *
@@ -37,16 +56,26 @@ public class FOVMetadata implements Serializable {
      * @param height    fov height.
      */
     FOVMetadata(String line, int width, int height) {
-        String[] columns = line.split("\\s");
-        this.id = Integer.parseInt(columns[0]);
-        this.pathId = Integer.parseInt(columns[1]);
-        String[] coord = columns[2].split(",");
+        this(parsePrediction(line), width, height);
+    }
+
+    /**
+     * Construct FOVMetadata object from the columns of a predicted path, the viewport of the given size
+     * is centered on the predicted box.
+     *
+     * @param columns   id, path id, x, y, width and height of the predicted box.
+     * @param width     fov width.
+     * @param height    fov height.
+     */
+    FOVMetadata(int[] columns, int width, int height) {
+        this.id = columns[0];
+        this.pathId = columns[1];
 
-        int temp_width = Integer.parseInt(coord[2]);
-        int temp_height = Integer.parseInt(coord[3]);
+        int temp_width = columns[4];
+        int temp_height = columns[5];
 
-        this.x = Integer.parseInt(coord[0]) + ((temp_width - width) / 2);
-        this.y = Integer.parseInt(coord[1]) + ((temp_height - height) / 2);
+        this.x = columns[2] + ((temp_width - width) / 2);
+        this.y = columns[3] + ((temp_height - height) / 2);
 
         // WARNING: workarounds, should be same as how fov video is created.
         if (this.x < 0) {
@@ -69,6 +98,14 @@ public class FOVMetadata implements Serializable {
         this.height = height;
     }
 
+    private static int[] parsePrediction(String line) {
+        String[] columns = line.split("\\s");
+        String[] coord = columns[2].split(",");
+        return new int[]{Integer.parseInt(columns[0]), Integer.parseInt(columns[1]),
+                Integer.parseInt(coord[0]), Integer.parseInt(coord[1]),
+                Integer.parseInt(coord[2]), Integer.parseInt(coord[3])};
+    }
+
     /**
      * Compute the overlap ratio of two viewport.
      *
@@ -140,6 +177,30 @@ public class FOVMetadata implements Serializable {
         return ratio;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public int getPathId() {
+        return pathId;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
     @Override
     public String toString() {
         return "FOVMetadata{" +
@@ -1,14 +1,41 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * This class should be used by VRPlayer which includes the user fov
  * trace. Once the VRPlayer construct this class, it will use the fov
  * to request for video segment from VRServer.
+ *
+ * The traces are stored in primitive int columns. A trace file has one line per frame with the
+ * format "id user x,y,w,h", several users can share one file. The file is memory mapped and parsed
+ * in a single pass over its bytes; with the binary cache enabled the columns are also written next
+ * to the text file as trace.cols and memory mapped instead of parsed the next time.
  */
 public class FOVTraces implements Iterable<FOVMetadata> {
-    private Vector<FOVMetadata> fovTraces;
+    private static final String CACHE_SUFFIX = ".cols";
+    private static final int CACHE_MAGIC = 0x53565254;     // "SVRT"
+    private static final int CACHE_VERSION = 1;
+    private static final int CACHE_HEADER_SIZE = 28;
+    private static final int COLUMNS = 6;
+
+    // columns of all the rows in file order
+    private IntBuffer ids;
+    private IntBuffer users;
+    private IntBuffer xs;
+    private IntBuffer ys;
+    private IntBuffer widths;
+    private IntBuffer heights;
+    private int[] rows;         // rows of this trace, null if the trace is every row of the file
+    private int size;
 
     /**
      * Parse the user fov trace file.
@@ -17,23 +44,178 @@ public class FOVTraces implements Iterable<FOVMetadata> {
      *              of the file should be delimit by space.
      */
     public FOVTraces(String trace) {
-        File file = new File(trace);
-        fovTraces = new Vector<FOVMetadata>();
+        this(trace, false);
+    }
 
-        // parse file line by line
+    /**
+     * Parse the user fov trace file, or map its binary cache.
+     *
+     * @param trace    the path of a user fov traces file, the format
+     *                 of the file should be delimit by space.
+     * @param useCache read trace.cols if it is up to date, otherwise write it after parsing.
+     */
+    public FOVTraces(String trace, boolean useCache) {
+        File file = new File(trace);
+        File cache = new File(trace + CACHE_SUFFIX);
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
-            String line;
-            int i = 0;
-            while ((line = bufferedReader.readLine()) != null) {
-                fovTraces.add(new FOVMetadata(i, line));
-                i++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (!useCache || !mapCache(file, cache)) {
+                parse(file);
+                if (useCache) {
+                    writeCache(file, cache);
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            setColumns(new int[COLUMNS][0], 0);
+        }
+    }
+
+    // a view of the rows of one user
+    private FOVTraces(FOVTraces all, int[] rows) {
+        this.ids = all.ids;
+        this.users = all.users;
+        this.xs = all.xs;
+        this.ys = all.ys;
+        this.widths = all.widths;
+        this.heights = all.heights;
+        this.rows = rows;
+        this.size = rows.length;
+    }
+
+    private void setColumns(int[][] columns, int rows) {
+        this.ids = IntBuffer.wrap(columns[0], 0, rows);
+        this.users = IntBuffer.wrap(columns[1], 0, rows);
+        this.xs = IntBuffer.wrap(columns[2], 0, rows);
+        this.ys = IntBuffer.wrap(columns[3], 0, rows);
+        this.widths = IntBuffer.wrap(columns[4], 0, rows);
+        this.heights = IntBuffer.wrap(columns[5], 0, rows);
+        this.size = rows;
+    }
+
+    // single pass over the bytes of the mapped text file
+    private void parse(File file) throws IOException {
+        MappedByteBuffer text = map(file);
+        int length = text.limit();
+        int capacity = Math.max(16, length / 24);
+        int[][] columns = new int[COLUMNS][capacity];
+        int row = 0;
+        int line = 1;
+        int position = 0;
+        while (position < length) {
+            byte b = text.get(position);
+            if (b == '\n' || b == '\r') {
+                // empty line
+                if (b == '\n') {
+                    line++;
+                }
+                position++;
+                continue;
+            }
+            if (row == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < COLUMNS; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], capacity);
+                }
+            }
+
+            // id user x,y,w,h
+            for (int c = 0; c < COLUMNS; c++) {
+                while (position < length && (text.get(position) == ' ' || text.get(position) == '\t')) {
+                    position++;
+                }
+                boolean negative = position < length && text.get(position) == '-';
+                if (negative) {
+                    position++;
+                }
+                int start = position;
+                int value = 0;
+                while (position < length && (b = text.get(position)) >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    position++;
+                }
+                if (position == start) {
+                    throw new IOException("Malformed trace at " + file + ":" + line);
+                }
+                columns[c][row] = negative ? -value : value;
+                if (c >= 2 && c < COLUMNS - 1) {
+                    if (position >= length || text.get(position) != ',') {
+                        throw new IOException("Malformed trace at " + file + ":" + line);
+                    }
+                    position++;
+                }
+            }
+
+            // ignore the rest of the line
+            while (position < length && text.get(position) != '\n') {
+                position++;
+            }
+            row++;
+        }
+        setColumns(columns, row);
+    }
+
+    // map trace.cols if it was written for the current trace file
+    private boolean mapCache(File file, File cache) throws IOException {
+        if (!cache.isFile()) {
+            return false;
+        }
+        MappedByteBuffer buffer = map(cache);
+        if (buffer.limit() < CACHE_HEADER_SIZE || buffer.getInt(0) != CACHE_MAGIC
+                || buffer.getInt(4) != CACHE_VERSION
+                || buffer.getLong(8) != file.length() || buffer.getLong(16) != file.lastModified()) {
+            return false;
+        }
+        int rows = buffer.getInt(24);
+        if (buffer.limit() != CACHE_HEADER_SIZE + 4L * COLUMNS * rows) {
+            return false;
         }
+        IntBuffer[] columns = new IntBuffer[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            ByteBuffer column = buffer.duplicate();
+            column.position(CACHE_HEADER_SIZE + 4 * c * rows);
+            column.limit(CACHE_HEADER_SIZE + 4 * (c + 1) * rows);
+            columns[c] = column.slice().asIntBuffer();
+        }
+        this.ids = columns[0];
+        this.users = columns[1];
+        this.xs = columns[2];
+        this.ys = columns[3];
+        this.widths = columns[4];
+        this.heights = columns[5];
+        this.size = rows;
+        return true;
+    }
+
+    // the cache is only an optimization, a failed write is reported and ignored
+    private void writeCache(File file, File cache) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cache)))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeInt(size);
+            for (IntBuffer column : new IntBuffer[]{ids, users, xs, ys, widths, heights}) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(column.get(i));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write trace cache " + cache + ": " + e.getMessage());
+            cache.delete();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file.getPath()), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2GB");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private int row(int i) {
+        return rows == null ? i : rows[i];
     }
 
     /**
@@ -43,11 +225,106 @@ public class FOVTraces implements Iterable<FOVMetadata> {
      * @return A serializable metadata object.
      */
     public FOVMetadata get(int segmentNb) {
-        assert fovTraces.size() > segmentNb;
-        return fovTraces.get(segmentNb);
+        assert size > segmentNb;
+        int row = row(segmentNb);
+        return new FOVMetadata(segmentNb, FOVMetadata.EMPTY, xs.get(row), ys.get(row), widths.get(row), heights.get(row));
+    }
+
+    /**
+     * Count the frames, starting from a key frame, that a path covers with at least the threshold
+     * before the first miss. A frame beyond the end of the trace counts as a miss.
+     *
+     * @param path      rectangle of the fov path.
+     * @param from      index of the key frame.
+     * @param frames    number of frames of the segment.
+     * @param threshold minimum overlap rate.
+     * @return number of covered frames, frames if all of them are covered.
+     */
+    public int coveredFrames(FOVMetadata path, int from, int frames, double threshold) {
+        int covered = 0;
+        while (covered < frames && from + covered < size
+                && path.getOverlapRate(get(from + covered)) >= threshold) {
+            covered++;
+        }
+        return covered;
+    }
+
+    /**
+     * Get the number of frames of the trace.
+     *
+     * @return number of frames.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the id column, the first column of the trace file, of a frame.
+     *
+     * @param i index of the frame.
+     * @return id of the frame.
+     */
+    public int getId(int i) {
+        return ids.get(row(i));
+    }
+
+    /**
+     * Get the users of the trace file, the second column.
+     *
+     * @return user ids in ascending order.
+     */
+    public int[] getUsers() {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            set.add(users.get(row(i)));
+        }
+        int[] result = new int[set.size()];
+        int i = 0;
+        for (int user : set) {
+            result[i++] = user;
+        }
+        return result;
+    }
+
+    /**
+     * Get the trace of one user, the frames keep their order in the file.
+     *
+     * @param user user id, the second column of the trace file.
+     * @return trace of the user, it shares the columns with this trace.
+     */
+    public FOVTraces forUser(int user) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (users.get(row(i)) == user) {
+                count++;
+            }
+        }
+        int[] userRows = new int[count];
+        count = 0;
+        for (int i = 0; i < size; i++) {
+            if (users.get(row(i)) == user) {
+                userRows[count++] = row(i);
+            }
+        }
+        return new FOVTraces(this, userRows);
     }
 
     public Iterator<FOVMetadata> iterator() {
-        return fovTraces.iterator();
+        return new Iterator<FOVMetadata>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public FOVMetadata next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
     }
 }
@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Byte offsets of the key frames (GOPs) of a full size video segment, so that VRPlayer can fetch a
+ * segment starting from the GOP of a given frame instead of the whole file.
+ *
+ * A partial file keeps the header, i.e. every byte before the first sample such as ftyp and a
+ * leading moov box, and the bytes from the GOP to the end of the file, which includes a trailing
+ * moov box. Both ranges are written at their original offsets so the sample table stays valid.
+ *
+ * The partial fetch is opt-in with -Dsvr.partial=true: the playback of the file with a hole, where
+ * the decoder may preroll from the first sample, is not verified on the TX2 decoder yet.
+ */
+public class GOPIndex {
+    // system property of VRPlayer and TraceEvaluator, true to fetch a missed full size segment from its GOP
+    public static final String PROPERTY = "svr.partial";
+
+    private long headerSize;    // offset of the first sample
+    private long fileSize;
+    private int[] keyFrames;    // frame index of every key frame, starts from 0
+    private long[] offsets;     // byte offset of every key frame
+
+    GOPIndex(long headerSize, long fileSize, int[] keyFrames, long[] offsets) {
+        this.headerSize = headerSize;
+        this.fileSize = fileSize;
+        this.keyFrames = keyFrames;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Get the byte offset of the GOP that contains the frame.
+     *
+     * @param frame frame index, starts from 0.
+     * @return byte offset of the last key frame at or before the frame.
+     */
+    public long getGOPOffset(int frame) {
+        int gop = 0;
+        for (int i = 0; i < keyFrames.length && keyFrames[i] <= frame; i++) {
+            gop = i;
+        }
+        return offsets[gop];
+    }
+
+    public long getHeaderSize() {
+        return headerSize;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    int[] getKeyFrames() {
+        return keyFrames;
+    }
+
+    long[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Build the index of an mp4 file from the sample table of its video track.
+     *
+     * @param file mp4 file.
+     * @return the index.
+     * @throws IOException when the file cannot be read or has no video track.
+     */
+    public static GOPIndex fromMp4(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            SampleTable table = new SampleTable();
+            parseBoxes(raf, 0, raf.length(), table);
+            if (table.sampleSizes == null || table.chunkOffsets == null || table.samplesPerChunk == null) {
+                throw new IOException("No video sample table in " + file);
+            }
+            return table.toIndex(raf.length());
+        }
+    }
+
+    // the boxes of the video track we need, see ISO/IEC 14496-12
+    private static class SampleTable {
+        private int[] syncSamples;          // stss, 1-based sample numbers, null if every sample is a key frame
+        private long[] sampleSizes;         // stsz
+        private long[][] samplesPerChunk;   // stsc, {first chunk, samples per chunk}
+        private long[] chunkOffsets;        // stco or co64
+        private boolean isVideo;
+
+        private GOPIndex toIndex(long fileSize) {
+            int sampleCount = sampleSizes.length;
+            long[] sampleOffsets = new long[sampleCount];
+            int sample = 0;
+            int run = 0;
+            for (int chunk = 1; chunk <= chunkOffsets.length && sample < sampleCount; chunk++) {
+                while (run + 1 < samplesPerChunk.length && samplesPerChunk[run + 1][0] <= chunk) {
+                    run++;
+                }
+                long offset = chunkOffsets[chunk - 1];
+                for (long i = 0; i < samplesPerChunk[run][1] && sample < sampleCount; i++) {
+                    sampleOffsets[sample] = offset;
+                    offset += sampleSizes[sample];
+                    sample++;
+                }
+            }
+
+            long headerSize = fileSize;
+            for (long offset : sampleOffsets) {
+                headerSize = Math.min(headerSize, offset);
+            }
+
+            int[] keyFrames;
+            if (syncSamples == null) {
+                keyFrames = new int[sampleCount];
+                for (int i = 0; i < sampleCount; i++) {
+                    keyFrames[i] = i;
+                }
+            } else {
+                keyFrames = new int[syncSamples.length];
+                for (int i = 0; i < syncSamples.length; i++) {
+                    keyFrames[i] = syncSamples[i] - 1;
+                }
+            }
+            long[] offsets = new long[keyFrames.length];
+            for (int i = 0; i < keyFrames.length; i++) {
+                offsets[i] = sampleOffsets[keyFrames[i]];
+            }
+            return new GOPIndex(headerSize, fileSize, keyFrames, offsets);
+        }
+    }
+
+    private static void parseBoxes(RandomAccessFile raf, long start, long end, SampleTable table) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            raf.seek(position);
+            long size = raf.readInt() & 0xffffffffL;
+            String type = readType(raf);
+            long headerLength = 8;
+            if (size == 1) {
+                size = raf.readLong();
+                headerLength = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerLength) {
+                throw new IOException("Broken box " + type + " at " + position);
+            }
+            long body = position + headerLength;
+            long boxEnd = position + size;
+
+            switch (type) {
+                case "moov":
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    parseBoxes(raf, body, boxEnd, table);
+                    break;
+                case "trak":
+                    // only keep the sample table of the first video track
+                    if (table.isVideo) {
+                        break;
+                    }
+                    SampleTable track = new SampleTable();
+                    parseBoxes(raf, body, boxEnd, track);
+                    if (track.isVideo) {
+                        table.isVideo = true;
+                        table.syncSamples = track.syncSamples;
+                        table.sampleSizes = track.sampleSizes;
+                        table.samplesPerChunk = track.samplesPerChunk;
+                        table.chunkOffsets = track.chunkOffsets;
+                    }
+                    break;
+                case "hdlr":
+                    raf.seek(body + 8);     // version, flags and pre_defined
+                    if (readType(raf).equals("vide")) {
+                        table.isVideo = true;
+                    }
+                    break;
+                case "stss": {
+                    raf.seek(body + 4);
+                    int count = raf.readInt();
+                    table.syncSamples = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        table.syncSamples[i] = raf.readInt();
+                    }
+                    break;
+                }
+                case "stsz": {
+                    raf.seek(body + 4);
+                    long sampleSize = raf.readInt() & 0xffffffffL;
+                    int count = raf.readInt();
+                    table.sampleSizes = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        table.sampleSizes[i] = sampleSize != 0 ? sampleSize : raf.readInt() & 0xffffffffL;
+                    }
+                    break;
+                }
+                case "stsc": {
+                    raf.seek(body + 4);
+                    int count = raf.readInt();
+                    table.samplesPerChunk = new long[count][2];
+                    for (int i = 0; i < count; i++) {
+                        table.samplesPerChunk[i][0] = raf.readInt() & 0xffffffffL;
+                        table.samplesPerChunk[i][1] = raf.readInt() & 0xffffffffL;
+                        raf.readInt();      // sample description index
+                    }
+                    break;
+                }
+                case "stco":
+                case "co64": {
+                    raf.seek(body + 4);
+                    int count = raf.readInt();
+                    table.chunkOffsets = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        table.chunkOffsets[i] = type.equals("stco") ? raf.readInt() & 0xffffffffL : raf.readLong();
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+            position = boxEnd;
+        }
+    }
+
+    private static String readType(RandomAccessFile raf) throws IOException {
+        byte[] type = new byte[4];
+        raf.readFully(type);
+        return new String(type, "US-ASCII");
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Harmonic mean of the throughput of the last downloads. A single fast download, a cache hit for
+ * example, barely moves the harmonic mean, while a slow one pulls it down.
+ */
+public class HarmonicBandwidthEstimator implements BandwidthEstimator {
+    private static final int DEFAULT_WINDOW = 5;
+
+    private final double[] secondsPerByte;  // inverse throughput of the last downloads, ring buffer
+    private int sampled;
+
+    public HarmonicBandwidthEstimator() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create an estimator.
+     *
+     * @param window number of the last downloads the mean is taken over, at least 1.
+     */
+    public HarmonicBandwidthEstimator(int window) {
+        this.secondsPerByte = new double[window];
+    }
+
+    @Override
+    public void sample(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        secondsPerByte[sampled % secondsPerByte.length] = nanos / 1e9 / bytes;
+        sampled++;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        int n = Math.min(sampled, secondsPerByte.length);
+        if (n == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += secondsPerByte[i];
+        }
+        return n / sum;
+    }
+}
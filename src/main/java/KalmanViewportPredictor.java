@@ -0,0 +1,95 @@
+/**
+ * Constant velocity Kalman filter of the viewport position, one filter per axis. The horizontal
+ * measurement is unwrapped against the filtered position, so the filter follows a move across the
+ * seam of the frame.
+ */
+public class KalmanViewportPredictor implements ViewportPredictor {
+    private static final double DEFAULT_PROCESS_NOISE = 50;         // variance of the acceleration, pixels^2 / frame^4
+    private static final double DEFAULT_MEASUREMENT_NOISE = 100;    // variance of an observed position, pixels^2
+
+    private final Axis x;
+    private final Axis y;
+    private FOVMetadata last;
+
+    public KalmanViewportPredictor() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    /**
+     * Create a predictor.
+     *
+     * @param processNoise     variance of the acceleration of the head motion.
+     * @param measurementNoise variance of the observed positions.
+     */
+    public KalmanViewportPredictor(double processNoise, double measurementNoise) {
+        this.x = new Axis(processNoise, measurementNoise);
+        this.y = new Axis(processNoise, measurementNoise);
+    }
+
+    @Override
+    public void observe(FOVMetadata viewport) {
+        if (last == null) {
+            x.reset(viewport.getX());
+            y.reset(viewport.getY());
+        } else {
+            x.update(x.position + ViewportPredictor.wrapDelta((int) Math.round(viewport.getX() - x.position)));
+            y.update(viewport.getY());
+        }
+        last = viewport;
+    }
+
+    @Override
+    public FOVMetadata predict(int frames) {
+        if (last == null) {
+            return null;
+        }
+        return ViewportPredictor.viewport(last, x.position + x.velocity * frames,
+                y.position + y.velocity * frames, frames);
+    }
+
+    /**
+     * Filter of the position and velocity on one axis, the time step is one frame.
+     */
+    private static class Axis {
+        private final double q;
+        private final double r;
+        private double position;
+        private double velocity;
+        // covariance of the estimate
+        private double p00;
+        private double p01;
+        private double p11;
+
+        Axis(double q, double r) {
+            this.q = q;
+            this.r = r;
+        }
+
+        void reset(double measured) {
+            position = measured;
+            velocity = 0;
+            p00 = r;
+            p01 = 0;
+            p11 = r;
+        }
+
+        void update(double measured) {
+            // predict one frame ahead
+            position += velocity;
+            p00 += 2 * p01 + p11 + q / 4;
+            p01 += p11 + q / 2;
+            p11 += q;
+
+            // correct with the measurement
+            double innovation = measured - position;
+            double s = p00 + r;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p01 -= k1 * p00;
+            p00 -= k0 * p00;
+        }
+    }
+}
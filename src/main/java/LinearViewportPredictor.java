@@ -0,0 +1,69 @@
+/**
+ * Extrapolate the viewport along the least squares line of the last observed positions, the
+ * horizontal positions are unwrapped first so a move across the seam keeps its direction.
+ */
+public class LinearViewportPredictor implements ViewportPredictor {
+    private static final int DEFAULT_WINDOW = 8;
+
+    private final double[] xs;  // unwrapped x of the last observed frames, ring buffer
+    private final double[] ys;
+    private int observed;
+    private FOVMetadata last;
+
+    public LinearViewportPredictor() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a predictor.
+     *
+     * @param window number of the last observed frames the line is fitted to, at least 2.
+     */
+    public LinearViewportPredictor(int window) {
+        this.xs = new double[window];
+        this.ys = new double[window];
+    }
+
+    @Override
+    public void observe(FOVMetadata viewport) {
+        double x = viewport.getX();
+        if (last != null) {
+            x = xs[(observed - 1) % xs.length] + ViewportPredictor.wrapDelta(viewport.getX() - last.getX());
+        }
+        xs[observed % xs.length] = x;
+        ys[observed % ys.length] = viewport.getY();
+        observed++;
+        last = viewport;
+    }
+
+    @Override
+    public FOVMetadata predict(int frames) {
+        if (last == null) {
+            return null;
+        }
+        double x = xs[(observed - 1) % xs.length];
+        double y = ys[(observed - 1) % ys.length];
+        return ViewportPredictor.viewport(last, x + slope(xs) * frames, y + slope(ys) * frames, frames);
+    }
+
+    // slope of the least squares line through the samples in the window, in pixels per frame
+    private double slope(double[] samples) {
+        int n = Math.min(observed, samples.length);
+        if (n < 2) {
+            return 0;
+        }
+        double meanT = (n - 1) / 2.0;
+        double meanV = 0;
+        for (int t = 0; t < n; t++) {
+            meanV += samples[(observed - n + t) % samples.length];
+        }
+        meanV /= n;
+        double covariance = 0;
+        double variance = 0;
+        for (int t = 0; t < n; t++) {
+            covariance += (t - meanT) * (samples[(observed - n + t) % samples.length] - meanV);
+            variance += (t - meanT) * (t - meanT);
+        }
+        return covariance / variance;
+    }
+}
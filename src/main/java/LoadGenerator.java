@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless load generator for VRServer. It simulates concurrent VRPlayers that follow the SVR-FOV
+ * protocol, HELLO, then FOV, PATH and RESULT for every segment, with the fov of every player taken
+ * from a user of the trace files. Nothing is downloaded or rendered, so the server is measured on
+ * its own: the latency of every path decision, from sending the FOV frame to receiving the PATH
+ * frame, the completed sessions per second and the failed sessions, at increasing concurrency.
+ */
+public class LoadGenerator {
+    private static final int FRAME_PER_VIDEO_SEGMENT = 15;
+
+    private String host;
+    private int port;
+    private List<FOVTraces> traces = new ArrayList<>();
+
+    /**
+     * Result of the sessions of one simulated player, or of all the players of a concurrency level.
+     */
+    private static class Result {
+        private long[] latencies = new long[1024];     // decision latencies in nanoseconds
+        private int decisions;
+        private int sessions;
+        private int errors;
+
+        void addLatency(long latency) {
+            if (decisions == latencies.length) {
+                latencies = Arrays.copyOf(latencies, decisions * 2);
+            }
+            latencies[decisions++] = latency;
+        }
+
+        void add(Result other) {
+            for (int i = 0; i < other.decisions; i++) {
+                addLatency(other.latencies[i]);
+            }
+            sessions += other.sessions;
+            errors += other.errors;
+        }
+
+        // nearest-rank percentile in microseconds, the latencies have to be sorted
+        double percentile(double p) {
+            if (decisions == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100 * decisions);
+            return latencies[Math.max(0, rank - 1)] / 1000.0;
+        }
+    }
+
+    /**
+     * Setup a load generator.
+     *
+     * @param host       host of VRServer.
+     * @param port       port of VRServer.
+     * @param traceFiles trace files, every user of them drives the players in turn.
+     */
+    public LoadGenerator(String host, int port, List<String> traceFiles) {
+        this.host = host;
+        this.port = port;
+        for (String traceFile : traceFiles) {
+            FOVTraces all = new FOVTraces(traceFile, true);
+            for (int user : all.getUsers()) {
+                traces.add(all.forUser(user));
+            }
+        }
+        if (traces.isEmpty()) {
+            throw new IllegalArgumentException("No user fov trace in " + traceFiles);
+        }
+    }
+
+    /**
+     * Run one concurrency level and print its report.
+     *
+     * @param concurrency number of simulated players running at the same time.
+     * @param sessions    number of sessions every player runs one after another.
+     * @throws InterruptedException when interrupted while waiting for the players.
+     */
+    public void runLevel(int concurrency, int sessions) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<Result>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int player = 0; player < concurrency; player++) {
+            FOVTraces fovTraces = traces.get(player % traces.size());
+            futures.add(executor.submit(() -> runPlayer(fovTraces, sessions)));
+        }
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            try {
+                total.add(future.get());
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                total.errors += sessions;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(total.latencies, 0, total.decisions);
+        System.out.println("[LOAD " + concurrency + " players] sessions: " + total.sessions
+                + ", sessions/s: " + String.format("%.1f", total.sessions / (elapsed / 1e9))
+                + ", decisions: " + total.decisions
+                + ", p50: " + String.format("%.1f", total.percentile(50)) + " us"
+                + ", p99: " + String.format("%.1f", total.percentile(99)) + " us"
+                + ", p999: " + String.format("%.1f", total.percentile(99.9)) + " us"
+                + ", errors: " + total.errors);
+    }
+
+    private Result runPlayer(FOVTraces fovTraces, int sessions) {
+        Result result = new Result();
+        for (int i = 0; i < sessions; i++) {
+            try {
+                runSession(fovTraces, result);
+                result.sessions++;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[LOAD] session failed: " + e);
+                result.errors++;
+            }
+        }
+        return result;
+    }
+
+    // one stream of the video, same messages as VRPlayer in SVR mode
+    private void runSession(FOVTraces fovTraces, Result result) throws IOException {
+        try (SessionChannel session = SessionChannel.connect(host, port)) {
+            session.sendHello();
+            session.receive(SessionChannel.MANIFEST);
+            int segmentAmount = session.getSegmentAmount();
+            ViewportPredictor predictor = ViewportPredictor.fromSpec(System.getProperty(ViewportPredictor.PROPERTY,
+                    ViewportPredictor.DEFAULT_SPEC));
+            int observedFrames = 0;
+
+            for (int segId = 1; segId <= segmentAmount; segId++) {
+                int keyFrameID = (segId - 1) * FRAME_PER_VIDEO_SEGMENT;
+                if (keyFrameID >= fovTraces.size()) {
+                    break;
+                }
+                FOVMetadata envelope = null;
+                if (predictor != null) {
+                    for (; observedFrames <= keyFrameID; observedFrames++) {
+                        predictor.observe(fovTraces.get(observedFrames));
+                    }
+                    envelope = ViewportPredictor.envelope(predictor, fovTraces.get(keyFrameID), FRAME_PER_VIDEO_SEGMENT);
+                }
+                long start = System.nanoTime();
+                session.sendFOV(fovTraces.get(keyFrameID), envelope);
+                session.receive(SessionChannel.PATH);
+                result.addLatency(System.nanoTime() - start);
+
+                if (FOVProtocol.isFOV(session.getCode())) {
+                    int covered = fovTraces.coveredFrames(session.getFOVMetadata(), keyFrameID,
+                            FRAME_PER_VIDEO_SEGMENT, FOVProtocol.THRESHOLD);
+                    if (covered < FRAME_PER_VIDEO_SEGMENT) {
+                        session.sendResult(FOVProtocol.BAD);
+                        session.receive(SessionChannel.PATHS);
+                        session.receive(SessionChannel.GOP);
+                    } else {
+                        session.sendResult(FOVProtocol.GOOD);
+                    }
+                }
+            }
+            session.sendEnd();
+        }
+    }
+
+    /**
+     * Example: java LoadGenerator localhost 1988 1,2,4,8,16,32 4 rhino-trace.txt
+     * Every level of the comma separated concurrency levels runs its players for the given number of sessions each.
+     *
+     * @param args command line args.
+     */
+    public static void main(String[] args) {
+        List<String> traceFiles = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            traceFiles.add(args[i]);
+        }
+        LoadGenerator generator = new LoadGenerator(args[0], Integer.parseInt(args[1]), traceFiles);
+        try {
+            for (String level : args[2].split(",")) {
+                generator.runLevel(Integer.parseInt(level), Integer.parseInt(args[3]));
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
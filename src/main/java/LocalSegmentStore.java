@@ -0,0 +1,118 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Segment store in a local directory with the same layout as the S3 bucket. Objects are memory
+ * mapped, so reading them does not copy through the java heap.
+ */
+public class LocalSegmentStore extends SegmentStore {
+    private Path root;
+
+    /**
+     * Use a directory as the store.
+     *
+     * @param root path of the directory, e.g. storage.
+     * @throws FileNotFoundException when the directory does not exist.
+     */
+    public LocalSegmentStore(String root) throws FileNotFoundException {
+        this.root = Paths.get(root);
+        if (!this.root.toFile().isDirectory()) {
+            throw new FileNotFoundException(root + " should be a directory!");
+        }
+    }
+
+    /**
+     * Get the file of an object.
+     *
+     * @param key key of the object.
+     * @return path of the file.
+     */
+    public Path getPath(String key) {
+        return root.resolve(key);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        File file = getPath(key).toFile();
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return file.length();
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new FileInputStream(getPath(key).toFile());
+    }
+
+    @Override
+    public InputStream open(String key, long start, long end) throws IOException {
+        return new BufferInputStream(map(key, start, end));
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        return map(key, 0, Long.MAX_VALUE).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        MappedByteBuffer buffer = map(key, 0, Long.MAX_VALUE);
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(key, buffer, out, progress);
+        }
+    }
+
+    @Override
+    public void downloadRange(String key, long start, long end, RandomAccessFile raf) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        MappedByteBuffer buffer = map(key, start, end);
+        FileChannel out = raf.getChannel();
+        out.position(start);
+        write(key, buffer, out, new AtomicLong());
+    }
+
+    // sendfile when the target is a socket, the bytes are not copied through the java heap
+    @Override
+    public void transferTo(String key, long start, long end, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = openChannel(key)) {
+            long position = start;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0 && position >= channel.size()) {
+                    throw new EOFException("Range is beyond the end of " + key);
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    // a missing object is reported as FileNotFoundException like the other stores
+    private FileChannel openChannel(String key) throws IOException {
+        try {
+            return FileChannel.open(getPath(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(e.getFile());
+        }
+    }
+
+    // map bytes [start, end) of an object, end is clipped to the size of the object
+    private MappedByteBuffer map(String key, long start, long end) throws IOException {
+        try (FileChannel channel = openChannel(key)) {
+            long size = channel.size();
+            long to = Math.min(end, size);
+            return channel.map(FileChannel.MapMode.READ_ONLY, Math.min(start, to), to - Math.min(start, to));
+        }
+    }
+}
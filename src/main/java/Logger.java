@@ -3,8 +3,6 @@ public class Logger {
     private boolean printLat;
     private boolean printError;
 
-    private long start;
-
     public Logger(boolean printProto, boolean printLat, boolean printError) {
         this.printProto = printProto;
         this.printLat = printLat;
@@ -17,15 +15,9 @@ public class Logger {
         }
     }
 
-    public void startLogTime() {
-        this.start = System.nanoTime();
-    }
-
-    public void endLogAndPrint() {
-        long elapsed = System.nanoTime() - this.start;
-        this.start = 0L;
+    public void printLatency(String s) {
         if (printLat) {
-            System.out.println(Double.toString((double) elapsed / 1000000000.0));
+            System.out.println(s);
         }
     }
 
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Segment store that keeps every object in memory, for testing and benchmarking without disk or
+ * network access.
+ */
+public class MemorySegmentStore extends SegmentStore {
+    private Map<String, ByteBuffer> objects;
+
+    public MemorySegmentStore() {
+        this.objects = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load every file under a directory, the key of a file is its path relative to the directory.
+     *
+     * @param root path of the directory, e.g. storage.
+     * @return the loaded store.
+     * @throws IOException when a file cannot be read.
+     */
+    public static MemorySegmentStore fromDirectory(String root) throws IOException {
+        MemorySegmentStore store = new MemorySegmentStore();
+        Path rootPath = Paths.get(root);
+        try (Stream<Path> paths = Files.walk(rootPath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    store.put(rootPath.relativize(path).toString().replace(File.separatorChar, '/'),
+                            Files.readAllBytes(path));
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Add or replace an object.
+     *
+     * @param key   key of the object.
+     * @param bytes content of the object.
+     */
+    public void put(String key, byte[] bytes) {
+        objects.put(key, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    private ByteBuffer get(String key) throws FileNotFoundException {
+        ByteBuffer buffer = objects.get(key);
+        if (buffer == null) {
+            throw new FileNotFoundException(key);
+        }
+        return buffer.duplicate();
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return get(key).remaining();
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new BufferInputStream(get(key));
+    }
+
+    @Override
+    public InputStream open(String key, long start, long end) throws IOException {
+        ByteBuffer buffer = get(key);
+        int to = (int) Math.min(end, buffer.limit());
+        buffer.limit(to);
+        buffer.position((int) Math.min(start, to));
+        return new BufferInputStream(buffer);
+    }
+
+    @Override
+    public void transferTo(String key, long start, long end, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = get(key);
+        buffer.limit((int) end);
+        buffer.position((int) start);
+        writeFully(buffer, target);
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        return get(key);
+    }
+
+    @Override
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        ByteBuffer buffer = get(key);
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(key, buffer, out, progress);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Miss probability of a fov path, learned from the GOOD and BAD results that VRPlayer sends back.
+ *
+ * A decision is described by how much of the predicted envelope of the segment the chosen path
+ * covers, or of the key frame viewport when VRPlayer sends no envelope. The results are counted per
+ * bucket of that coverage, shared by all the sessions without locks. The probability of a bucket is
+ * its miss rate smoothed towards the part of the envelope that the path does not cover, so an unseen
+ * bucket starts at 1 - cover.
+ *
+ * A bucket whose estimate leads to FULL gets no more results, since FULL decisions are never answered
+ * with one. So that a few early misses do not lock a bucket out for every session, a small part of
+ * the estimates explore with the prior of the bucket instead of its counts, and the counts of a bucket
+ * are halved once they reach a window of decisions, so the results after an exploration weigh as much
+ * as the old ones.
+ */
+public class MissModel {
+    private static final int BUCKETS = 50;      // 2% of cover each, the covers that matter are close to 1
+    private static final double PRIOR_DECISIONS = 2;    // weight of the 1 - cover prior, in decisions
+    private static final double EXPLORATION = 0.05;     // part of the estimates that use the prior only
+    private static final long WINDOW = 64;              // decisions of a bucket before its counts are halved
+
+    // decisions in the high 32 bits and misses in the low 32 bits, so both are updated by one CAS
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final Random random;
+
+    /**
+     * Create a model that explores with a thread local random, for VRServer.
+     */
+    public MissModel() {
+        this(null);
+    }
+
+    /**
+     * Create a model that explores with its own random, so that a replay can be repeated.
+     *
+     * @param random source of the explorations, null for a thread local random.
+     */
+    public MissModel(Random random) {
+        this.random = random;
+    }
+
+    private static int bucket(double cover) {
+        return (int) Math.max(0, Math.min(BUCKETS - 1, Math.floor(cover * BUCKETS)));
+    }
+
+    private static long decisions(long count) {
+        return count >>> 32;
+    }
+
+    private static long misses(long count) {
+        return count & 0xffffffffL;
+    }
+
+    /**
+     * Estimate the probability that a path misses a frame of the segment.
+     *
+     * @param cover overlap rate of the path with the envelope, or with the key frame viewport.
+     * @return miss probability.
+     */
+    public double getMissProbability(double cover) {
+        double prior = Math.max(0, Math.min(1, 1 - cover));
+        double draw = random == null ? ThreadLocalRandom.current().nextDouble() : random.nextDouble();
+        if (draw < EXPLORATION) {
+            return prior;
+        }
+        long count = counts.get(bucket(cover));
+        return (misses(count) + PRIOR_DECISIONS * prior) / (decisions(count) + PRIOR_DECISIONS);
+    }
+
+    /**
+     * Learn from the result of a fov path decision.
+     *
+     * @param cover overlap rate of the path with the envelope, or with the key frame viewport.
+     * @param miss  whether VRPlayer answered BAD.
+     */
+    public void record(double cover, boolean miss) {
+        int bucket = bucket(cover);
+        while (true) {
+            long count = counts.get(bucket);
+            long decisions = decisions(count) + 1;
+            long misses = misses(count) + (miss ? 1 : 0);
+            if (decisions >= WINDOW) {
+                decisions /= 2;
+                misses /= 2;
+            }
+            if (counts.compareAndSet(bucket, count, decisions << 32 | misses)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[MISS MODEL]");
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (decisions(count) > 0) {
+                sb.append(' ').append(i * 100 / BUCKETS).append("%: ")
+                        .append(misses(count)).append('/').append(decisions(count));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of hot video segments in direct ByteBuffers in front of the segment store of VRServer, so
+ * that popular segments, like the first seconds of a video and the dominant fov path of every
+ * segment, are not read from the store again for every player. Sessions write the cached bytes to
+ * their socket channel without copying them to the java heap.
+ *
+ * The cache is split into shards by key, each shard has its own lock and an equal part of the byte
+ * budget. Every shard follows W-TinyLFU: new segments enter a small LRU window, a segment leaving
+ * the window only replaces the least recently used segment of the main LRU if it was requested
+ * more often, according to a count-min sketch of recent request frequencies.
+ *
+ * A missed segment is only copied off-heap once the sketch has seen it requested twice and it is
+ * popular enough to replace the eldest segments of main, before that it is served from the store as
+ * is, with sendfile for a local store, so that one-hit segments and segments that would be rejected
+ * never allocate direct memory. Sessions that miss the same segment at the same time wait for one load.
+ */
+public class OffHeapSegmentCache extends SegmentStore {
+    private static final int DEFAULT_SHARDS = 16;
+    private static final int WINDOW_PERCENT = 5;
+    private static final int LOAD_FREQUENCY = 2;     // requests of a segment before it is copied off-heap
+
+    private SegmentStore backend;
+    private Shard[] shards;
+    private ConcurrentHashMap<String, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong admissions = new AtomicLong();
+    private AtomicLong rejections = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Put an off-heap cache in front of a segment store.
+     *
+     * @param backend  the store to read the missed segments from.
+     * @param capacity maximum bytes of all the cached segments.
+     */
+    public OffHeapSegmentCache(SegmentStore backend, long capacity) {
+        this(backend, capacity, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Put an off-heap cache in front of a segment store.
+     *
+     * @param backend   the store to read the missed segments from.
+     * @param capacity  maximum bytes of all the cached segments.
+     * @param shardSize number of shards.
+     */
+    public OffHeapSegmentCache(SegmentStore backend, long capacity, int shardSize) {
+        this.backend = backend;
+        this.shards = new Shard[shardSize];
+        for (int i = 0; i < shardSize; i++) {
+            shards[i] = new Shard(capacity / shardSize);
+        }
+    }
+
+    private Shard shardOf(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return shards[(hash & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * Get the bytes of a segment, load it from the backend on a miss if it was requested often enough.
+     *
+     * @param key key of the segment.
+     * @return a duplicate of the cached buffer, or null if the segment has to be served from the backend.
+     * @throws IOException when the backend cannot read the segment.
+     */
+    private ByteBuffer get(String key) throws IOException {
+        Shard shard = shardOf(key);
+        ByteBuffer buffer = shard.get(key);
+        if (buffer != null) {
+            hits.incrementAndGet();
+            return buffer.duplicate();
+        }
+        misses.incrementAndGet();
+        if (shard.frequency(key) < LOAD_FREQUENCY) {
+            return null;
+        }
+        long size = backend.size(key);
+        if (!shard.wouldAdmit(key, size)) {
+            // it would not make it into main, stream it from the backend instead of copying it off-heap
+            return null;
+        }
+        return load(shard, key).duplicate();
+    }
+
+    // load a segment into the shard once, the sessions that miss it meanwhile wait for the same load
+    private ByteBuffer load(Shard shard, String key) throws IOException {
+        CompletableFuture<ByteBuffer> loader = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> inFlight = loading.putIfAbsent(key, loader);
+        if (inFlight != null) {
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + key);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        try {
+            // copy into a direct buffer, a mapped file of the local store is copied without the heap
+            ByteBuffer source = backend.read(key);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(source.remaining());
+            buffer.put(source);
+            buffer.flip();
+            buffer = buffer.asReadOnlyBuffer();
+            shard.put(key, buffer);
+            loader.complete(buffer);
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            loader.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, loader);
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        ByteBuffer buffer = shardOf(key).peek(key);
+        return buffer != null ? buffer.capacity() : backend.size(key);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        ByteBuffer buffer = get(key);
+        return buffer != null ? new BufferInputStream(buffer) : backend.open(key);
+    }
+
+    @Override
+    public InputStream open(String key, long start, long end) throws IOException {
+        ByteBuffer buffer = get(key);
+        if (buffer == null) {
+            return backend.open(key, start, end);
+        }
+        slice(buffer, start, end);
+        return new BufferInputStream(buffer);
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        ByteBuffer buffer = get(key);
+        return buffer != null ? buffer : backend.read(key);
+    }
+
+    @Override
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        ByteBuffer buffer = get(key);
+        if (buffer == null) {
+            backend.download(key, path, progress);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(key, buffer, out, progress);
+        }
+    }
+
+    // the direct buffer is written to the socket as is
+    @Override
+    public void transferTo(String key, long start, long end, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = get(key);
+        if (buffer == null) {
+            backend.transferTo(key, start, end, target);
+            return;
+        }
+        slice(buffer, start, end);
+        writeFully(buffer, target);
+    }
+
+    private static void slice(ByteBuffer buffer, long start, long end) {
+        int to = (int) Math.min(end, buffer.limit());
+        buffer.limit(to);
+        buffer.position((int) Math.min(start, to));
+    }
+
+    @Override
+    public void close() throws IOException {
+        backend.close();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getAdmissions() {
+        return admissions.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return bytes of all the cached segments.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                bytes += shard.windowBytes + shard.mainBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return maximum bytes of all the cached segments.
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for (Shard shard : shards) {
+            capacity += shard.windowCapacity + shard.mainCapacity;
+        }
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "[OFF-HEAP CACHE] hits: " + hits
+                + ", misses: " + misses
+                + ", admissions: " + admissions
+                + ", rejections: " + rejections
+                + ", evictions: " + evictions
+                + ", bytes: " + getBytes() + "/" + getCapacity();
+    }
+
+    /**
+     * One shard of the cache.
+     */
+    private class Shard {
+        private long windowCapacity;
+        private long mainCapacity;
+        private long windowBytes;
+        private long mainBytes;
+        // access ordered, the eldest entry is the least recently used one
+        private LinkedHashMap<String, ByteBuffer> window = new LinkedHashMap<>(16, 0.75f, true);
+        private LinkedHashMap<String, ByteBuffer> main = new LinkedHashMap<>(16, 0.75f, true);
+        private FrequencySketch sketch = new FrequencySketch();
+
+        Shard(long capacity) {
+            this.windowCapacity = capacity * WINDOW_PERCENT / 100;
+            this.mainCapacity = capacity - windowCapacity;
+        }
+
+        // look up without counting a request
+        synchronized ByteBuffer peek(String key) {
+            ByteBuffer buffer = window.get(key);
+            return buffer != null ? buffer : main.get(key);
+        }
+
+        synchronized ByteBuffer get(String key) {
+            sketch.increment(key);
+            return peek(key);
+        }
+
+        synchronized int frequency(String key) {
+            return sketch.frequency(key);
+        }
+
+        // whether a segment of this size would replace the eldest segments of main at its current frequency
+        synchronized boolean wouldAdmit(String key, long size) {
+            return victims(sketch.frequency(key), size) >= 0;
+        }
+
+        synchronized void put(String key, ByteBuffer buffer) {
+            if (window.containsKey(key) || main.containsKey(key)) {
+                return;
+            }
+            window.put(key, buffer);
+            windowBytes += buffer.capacity();
+
+            // segments leaving the window compete with the eldest segments of main
+            Iterator<Map.Entry<String, ByteBuffer>> windowEldest = window.entrySet().iterator();
+            while (windowBytes > windowCapacity && windowEldest.hasNext()) {
+                Map.Entry<String, ByteBuffer> candidate = windowEldest.next();
+                windowEldest.remove();
+                windowBytes -= candidate.getValue().capacity();
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        private void admit(String key, ByteBuffer buffer) {
+            long size = buffer.capacity();
+            int victims = victims(sketch.frequency(key), size);
+            if (victims < 0) {
+                rejections.incrementAndGet();
+                return;
+            }
+
+            Iterator<Map.Entry<String, ByteBuffer>> mainEldest = main.entrySet().iterator();
+            for (int i = 0; i < victims; i++) {
+                mainBytes -= mainEldest.next().getValue().capacity();
+                mainEldest.remove();
+                evictions.incrementAndGet();
+            }
+            main.put(key, buffer);
+            mainBytes += size;
+            admissions.incrementAndGet();
+        }
+
+        /**
+         * Count the eldest segments of main that have to leave it for a candidate, all of them must be
+         * less popular than the candidate.
+         *
+         * @param frequency frequency of the candidate.
+         * @param size      bytes of the candidate.
+         * @return number of victims, or -1 if the candidate is rejected.
+         */
+        private int victims(int frequency, long size) {
+            Iterator<Map.Entry<String, ByteBuffer>> mainEldest = main.entrySet().iterator();
+            long freed = 0;
+            int victims = 0;
+            while (mainBytes - freed + size > mainCapacity && mainEldest.hasNext()) {
+                Map.Entry<String, ByteBuffer> victim = mainEldest.next();
+                if (sketch.frequency(victim.getKey()) >= frequency) {
+                    return -1;
+                }
+                freed += victim.getValue().capacity();
+                victims++;
+            }
+            return mainBytes - freed + size > mainCapacity ? -1 : victims;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, all the counters are halved after a number of increments
+     * so that old popularity fades out. The rows are indexed by double hashing of a 64-bit hash of the
+     * key, so keys that collide in one row rarely collide in the others.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int WIDTH = 1024;
+        private static final int MAX_COUNT = 15;
+        private static final int SAMPLE_SIZE = 10 * WIDTH;
+
+        private byte[][] counters = new byte[DEPTH][WIDTH];
+        private int additions;
+
+        // FNV-1a over the chars of the key, then the finalizer of MurmurHash3 to spread all the bits
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+        // row i uses column h1 + i * h2, with an odd h2 so that a key gets a different column in every row
+        private static int index(long hash, int row) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            return (h1 + row * h2) & (WIDTH - 1);
+        }
+
+        void increment(String key) {
+            long hash = hash(key);
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (counters[row][i] < MAX_COUNT) {
+                    counters[row][i]++;
+                }
+            }
+            if (++additions >= SAMPLE_SIZE) {
+                for (byte[] row : counters) {
+                    for (int i = 0; i < WIDTH; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            long hash = hash(key);
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * The predicted paths of a video segment stored as primitive columns, so that one viewport can be
+ * scored against all of them in a single pass without allocation.
+ *
+ * The overlap rate is computed with exact integer arithmetic and gives the same result as
+ * {@link FOVMetadata#getOverlapRate(FOVMetadata)}, including its wrap-around handling.
+ */
+public class PathBatch {
+    private static final int W = FOVProtocol.FULL_SIZE_WIDTH;
+
+    private final int size;
+    private final int[] x;
+    private final int[] y;
+    private final int[] width;
+    private final int[] height;
+
+    /**
+     * Copy the rectangles of the paths into columns.
+     *
+     * @param pathVec predicted paths of the video segment, may be null for the padding segment.
+     */
+    public PathBatch(Vector<FOVMetadata> pathVec) {
+        this.size = pathVec == null ? 0 : pathVec.size();
+        this.x = new int[size];
+        this.y = new int[size];
+        this.width = new int[size];
+        this.height = new int[size];
+        for (int i = 0; i < size; i++) {
+            FOVMetadata path = pathVec.get(i);
+            x[i] = path.getX();
+            y[i] = path.getY();
+            width[i] = path.getWidth();
+            height[i] = path.getHeight();
+        }
+    }
+
+    /**
+     * Get the number of paths.
+     *
+     * @return number of paths.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compute the overlap ratio of one path with the viewport, same as
+     * {@code pathVec.get(pathId).getOverlapRate(viewport)}.
+     *
+     * @param pathId   path id.
+     * @param viewport user fov metadata.
+     * @return overlap ratio.
+     */
+    public double overlapRate(int pathId, FOVMetadata viewport) {
+        return overlapRate(x[pathId], y[pathId], width[pathId], height[pathId],
+                viewport.getX(), viewport.getY(), viewport.getWidth(), viewport.getHeight());
+    }
+
+    /**
+     * Compute the overlap ratio of every path with the viewport.
+     *
+     * @param viewport user fov metadata.
+     * @param rates    output array with at least {@link #size()} elements, rates[i] is for path i.
+     */
+    public void overlapRates(FOVMetadata viewport, double[] rates) {
+        int vx = viewport.getX();
+        int vy = viewport.getY();
+        int vw = viewport.getWidth();
+        int vh = viewport.getHeight();
+        for (int i = 0; i < size; i++) {
+            rates[i] = overlapRate(x[i], y[i], width[i], height[i], vx, vy, vw, vh);
+        }
+    }
+
+    /**
+     * Find the first path whose overlap ratio with the viewport reaches the threshold.
+     *
+     * @param viewport  user fov metadata.
+     * @param threshold minimum overlap rate.
+     * @return path id, or {@link FOVProtocol#FULL} if no path matches.
+     */
+    public int firstMatch(FOVMetadata viewport, double threshold) {
+        int vx = viewport.getX();
+        int vy = viewport.getY();
+        int vw = viewport.getWidth();
+        int vh = viewport.getHeight();
+        for (int i = 0; i < size; i++) {
+            if (overlapRate(x[i], y[i], width[i], height[i], vx, vy, vw, vh) >= threshold) {
+                return i;
+            }
+        }
+        return FOVProtocol.FULL;
+    }
+
+    /**
+     * Find the paths that cover every frame of a range of a trace, every frame is scored against all
+     * the paths in one pass.
+     *
+     * @param traces    user fov of every frame.
+     * @param from      index of the first frame.
+     * @param frames    number of frames.
+     * @param threshold minimum overlap rate.
+     * @return covers[i] is true if path i covers all the frames, a frame beyond the end of the trace is
+     * covered by no path, same as {@link FOVTraces#coveredFrames(FOVMetadata, int, int, double)}.
+     */
+    public boolean[] coverAll(FOVTraces traces, int from, int frames, double threshold) {
+        boolean[] covers = new boolean[size];
+        if (from + frames > traces.size()) {
+            return covers;
+        }
+        Arrays.fill(covers, true);
+        for (int f = from; f < from + frames; f++) {
+            FOVMetadata viewport = traces.get(f);
+            int vx = viewport.getX();
+            int vy = viewport.getY();
+            int vw = viewport.getWidth();
+            int vh = viewport.getHeight();
+            for (int i = 0; i < size; i++) {
+                if (covers[i] && overlapRate(x[i], y[i], width[i], height[i], vx, vy, vw, vh) < threshold) {
+                    covers[i] = false;
+                }
+            }
+        }
+        return covers;
+    }
+
+    // Overlap of the path (px, py, pw, ph) with the viewport (vx, vy, vw, vh) divided by the viewport area.
+    // Every branch mirrors FOVMetadata.getOverlapRate, where all the doubles hold integers.
+    private static double overlapRate(int px, int py, int pw, int ph, int vx, int vy, int vw, int vh) {
+        long pathRight = (long) px + pw;
+        long viewRight = (long) vx + vw;
+        long totalX;
+        if (pathRight > W) {
+            if (viewRight > W) {
+                totalX = Math.min(pathRight - W, viewRight - W) + W - Math.max(px, vx);
+            } else if (viewRight >= 0) {
+                long wrapped = pathRight - W > vx ? Math.min(pathRight - W, viewRight) - vx : 0;
+                long inside = viewRight > px ? Math.min(W, viewRight) - Math.max(px, vx) : 0;
+                totalX = wrapped + inside;
+            } else {
+                totalX = 0;
+            }
+        } else if (pathRight >= 0) {
+            if (viewRight > W) {
+                long wrapped = px < viewRight - W ? Math.min(pathRight, viewRight - W) - Math.max(px, 0) : 0;
+                long inside = pathRight > vx ? pathRight - vx : 0;
+                totalX = wrapped + inside;
+            } else if (viewRight >= 0) {
+                totalX = Math.max(0, Math.min(pathRight, viewRight) - Math.max(px, vx));
+            } else {
+                totalX = 0;
+            }
+        } else {
+            totalX = 0;
+        }
+
+        long totalY = Math.abs(Math.min((long) py + ph, (long) vy + vh) - Math.max(py, vy));
+        if (totalY > vh) {
+            totalY = vh;
+        }
+        return (double) (Math.abs(totalX) * totalY) / (vw * vh);
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Uniform grid over the equirectangular frame that buckets the predicted paths of one video segment.
+ *
+ * A path can only cover more than half of a viewport in both directions if it contains the center
+ * of the viewport, so with {@link FOVProtocol#THRESHOLD} above 0.5 the paths that can reach the
+ * threshold are all in the grid cell of the viewport center. Columns wrap around at
+ * {@link FOVProtocol#FULL_SIZE_WIDTH} the same way getOverlapRate does.
+ *
+ * getOverlapRate also counts some area outside of the viewport: the vertical gap between two
+ * disjoint rectangles, and the part left of a path for a viewport that wraps around. For the rare
+ * viewports where that could reach the threshold, the index falls back to scanning all the paths.
+ */
+public class PathIndex {
+    private static final int CELL_SIZE = 120;
+    private static final int COLUMNS = (FOVProtocol.FULL_SIZE_WIDTH + CELL_SIZE - 1) / CELL_SIZE;
+    private static final int ROWS = (FOVProtocol.FULL_SIZE_HEIGHT + CELL_SIZE - 1) / CELL_SIZE;
+    private static final int[] EMPTY = new int[0];
+
+    private PathBatch pathBatch;
+    private int[][] cells;      // path ids of each cell in ascending order, indexed by row * COLUMNS + column
+    private int minPathBottom;
+    private int maxPathTop;
+
+    /**
+     * Build the grid of the paths of a video segment.
+     *
+     * @param pathVec predicted paths of the video segment, may be null for the padding segment.
+     */
+    public PathIndex(Vector<FOVMetadata> pathVec) {
+        this.pathBatch = new PathBatch(pathVec);
+        this.cells = new int[COLUMNS * ROWS][];
+
+        this.minPathBottom = Integer.MAX_VALUE;
+        this.maxPathTop = Integer.MIN_VALUE;
+
+        int[] counts = new int[COLUMNS * ROWS];
+        if (pathVec == null) {
+            pathVec = new Vector<>();
+        }
+        for (FOVMetadata path : pathVec) {
+            forEachCell(path, counts, null, 0);
+            minPathBottom = Math.min(minPathBottom, path.getY() + path.getHeight());
+            maxPathTop = Math.max(maxPathTop, path.getY());
+        }
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = counts[i] == 0 ? EMPTY : new int[counts[i]];
+        }
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < pathVec.size(); i++) {
+            forEachCell(pathVec.get(i), counts, cells, i);
+        }
+    }
+
+    // count the path in all the cells it touches, and also store its id when cells is given
+    private static void forEachCell(FOVMetadata path, int[] counts, int[][] cells, int pathId) {
+        int firstColumn = Math.floorDiv(path.getX(), CELL_SIZE);
+        int lastColumn = Math.floorDiv(path.getX() + path.getWidth(), CELL_SIZE);
+        if (lastColumn - firstColumn >= COLUMNS) {
+            lastColumn = firstColumn + COLUMNS - 1;
+        }
+        int firstRow = Math.max(0, Math.floorDiv(path.getY(), CELL_SIZE));
+        int lastRow = Math.min(ROWS - 1, Math.floorDiv(path.getY() + path.getHeight(), CELL_SIZE));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * COLUMNS + Math.floorMod(column, COLUMNS);
+                if (cells != null) {
+                    cells[cell][counts[cell]] = pathId;
+                }
+                counts[cell]++;
+            }
+        }
+    }
+
+    /**
+     * Get the paths that may reach the threshold for the viewport, in ascending path id order.
+     * The returned array is shared and should not be modified.
+     *
+     * @param viewport user fov metadata.
+     * @return ids of the candidate paths.
+     */
+    public int[] getCandidates(FOVMetadata viewport) {
+        int centerX = viewport.getX() + viewport.getWidth() / 2;
+        int centerY = viewport.getY() + viewport.getHeight() / 2;
+        int row = Math.floorDiv(centerY, CELL_SIZE);
+        if (row < 0 || row >= ROWS) {
+            return EMPTY;
+        }
+        return cells[row * COLUMNS + Math.floorMod(Math.floorDiv(centerX, CELL_SIZE), COLUMNS)];
+    }
+
+    /**
+     * Get the columnar copy of the paths used to score the candidates.
+     *
+     * @return paths of the segment.
+     */
+    public PathBatch getPathBatch() {
+        return pathBatch;
+    }
+
+    /**
+     * Find the first path, in path id order, whose overlap rate with the viewport reaches the
+     * threshold. Same result as scanning all the paths of the segment.
+     *
+     * @param viewport  user fov metadata.
+     * @param threshold minimum overlap rate, should be larger than 0.5.
+     * @return path id, or {@link FOVProtocol#FULL} if no path matches.
+     */
+    public int match(FOVMetadata viewport, double threshold) {
+        if (threshold <= 0.5 || mayCountOutside(viewport, threshold)) {
+            return pathBatch.firstMatch(viewport, threshold);
+        }
+        for (int pathId : getCandidates(viewport)) {
+            if (pathBatch.overlapRate(pathId, viewport) >= threshold) {
+                return pathId;
+            }
+        }
+        return FOVProtocol.FULL;
+    }
+
+    /**
+     * Find all the paths whose overlap rate with the viewport reaches the threshold.
+     *
+     * @param viewport  user fov metadata.
+     * @param threshold minimum overlap rate, should be larger than 0.5.
+     * @return path ids in ascending order.
+     */
+    public int[] matchAll(FOVMetadata viewport, double threshold) {
+        boolean scanAll = threshold <= 0.5 || mayCountOutside(viewport, threshold);
+        int[] candidates = scanAll ? null : getCandidates(viewport);
+        int size = scanAll ? pathBatch.size() : candidates.length;
+        int[] matches = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int pathId = scanAll ? i : candidates[i];
+            if (pathBatch.overlapRate(pathId, viewport) >= threshold) {
+                matches[count++] = pathId;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Among the paths whose overlap rate with the viewport reaches the threshold, find the one that
+     * covers the largest part of the envelope of the viewports predicted for the segment, the first
+     * one in path id order on a tie.
+     *
+     * @param viewport  user fov metadata of the key frame.
+     * @param threshold minimum overlap rate with the viewport, should be larger than 0.5.
+     * @param envelope  rectangle that contains the predicted viewports of the segment.
+     * @return path id, or {@link FOVProtocol#FULL} if no path matches the viewport.
+     */
+    public int match(FOVMetadata viewport, double threshold, FOVMetadata envelope) {
+        boolean scanAll = threshold <= 0.5 || mayCountOutside(viewport, threshold);
+        int[] candidates = scanAll ? null : getCandidates(viewport);
+        int size = scanAll ? pathBatch.size() : candidates.length;
+        int best = FOVProtocol.FULL;
+        double bestCover = -1;
+        for (int i = 0; i < size; i++) {
+            int pathId = scanAll ? i : candidates[i];
+            if (pathBatch.overlapRate(pathId, viewport) >= threshold) {
+                double cover = pathBatch.overlapRate(pathId, envelope);
+                if (cover > bestCover) {
+                    best = pathId;
+                    bestCover = cover;
+                }
+            }
+        }
+        return best;
+    }
+
+    // whether getOverlapRate may count enough area outside of the viewport to reach the threshold
+    private boolean mayCountOutside(FOVMetadata viewport, double threshold) {
+        int x = viewport.getX();
+        int y = viewport.getY();
+        int width = viewport.getWidth();
+        int height = viewport.getHeight();
+        boolean wrapped = x + width > FOVProtocol.FULL_SIZE_WIDTH
+                && FOVProtocol.FULL_SIZE_WIDTH - x >= threshold * width;
+        boolean verticalGap = minPathBottom <= y - threshold * height
+                || maxPathTop >= y + height + threshold * height;
+        return x < 0 || wrapped || verticalGap;
+    }
+}
@@ -1,6 +1,10 @@
 import java.io.IOException;
 import java.nio.file.*;
 
+/**
+ * Play a video segment with a ./render process of its own, VRPlayer falls back to it when the
+ * {@link RenderDaemon} cannot be started.
+ */
 public class PlayNative {
 
     /**
@@ -27,7 +31,7 @@ public class PlayNative {
         }
     }
 
-    private static String getFileUriFromName(String name) {
+    static String getFileUriFromName(String name) {
         String protocol = "file://";
         Path currentRelativePath = Paths.get("");
         String pwd = currentRelativePath.toAbsolutePath().toString();
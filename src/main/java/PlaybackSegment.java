@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * A downloaded video segment that is ready to be rendered. A segment may be rendered from more than
+ * one file, e.g. the fov segment until the first miss and then the full size segment.
+ */
+public class PlaybackSegment {
+    private int segId;
+    private Vector<RenderTask> renderTasks;
+
+    private static class RenderTask {
+        private String filename;
+        private int startFrame;
+        private int endFrame;
+
+        RenderTask(String filename, int startFrame, int endFrame) {
+            this.filename = filename;
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+    }
+
+    /**
+     * Create an empty segment.
+     *
+     * @param segId identifier of the video segment.
+     */
+    public PlaybackSegment(int segId) {
+        this.segId = segId;
+        this.renderTasks = new Vector<>();
+    }
+
+    /**
+     * Append a frame range of a downloaded file, see {@link PlayNative#PlayNative(String, int, int)}.
+     *
+     * @param filename   the relative path of the video file.
+     * @param startFrame the frame number that we want to start with.
+     * @param endFrame   the index of frame that we want to stop for, -1 for the end of the file.
+     */
+    public void addRenderTask(String filename, int startFrame, int endFrame) {
+        renderTasks.add(new RenderTask(filename, startFrame, endFrame));
+    }
+
+    /**
+     * Render all the frame ranges in order, block until the last one is done.
+     */
+    public void render() {
+        for (RenderTask task : renderTasks) {
+            new PlayNative(task.filename, task.startFrame, task.endFrame);
+        }
+    }
+
+    /**
+     * Queue all the frame ranges in order on the render daemon, without waiting for them.
+     *
+     * @param daemon the running render daemon.
+     * @return the tickets of the frame ranges, in order.
+     * @throws IOException when the daemon has stopped.
+     */
+    public Vector<RenderDaemon.Ticket> queue(RenderDaemon daemon) throws IOException {
+        Vector<RenderDaemon.Ticket> tickets = new Vector<>();
+        for (RenderTask task : renderTasks) {
+            tickets.add(daemon.play(task.filename, task.startFrame, task.endFrame));
+        }
+        return tickets;
+    }
+
+    public int getSegId() {
+        return segId;
+    }
+}
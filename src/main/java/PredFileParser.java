@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parser of the object-predicted path files used to create the manifest, e.g. storage/rhinos-pred.txt, with
+ * one predicted box per line in the format "id pathId x,y,w,h".
+ *
+ * The file is memory mapped and cut into chunks at line boundaries, the chunks are tokenized in parallel on
+ * the fork-join pool straight from the bytes, without a String per line, and the rows are then grouped into
+ * video segments in file order.
+ */
+public class PredFileParser {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int COLUMNS = 6;
+
+    /**
+     * Parse a predict file into the predicted paths of every video segment. The result is the same as the
+     * line by line parser it replaces: index 0 is a null padding, a row of path 0 whose id is not 1 starts
+     * a new segment, and the rows after the last such row are not part of any segment.
+     *
+     * @param predFileName path to a object detection file of the video.
+     * @return paths of every video segment, an empty list but the padding if the file cannot be read.
+     */
+    static Vector<Vector<FOVMetadata>> parse(String predFileName) {
+        File predFile = new File(predFileName);
+        Vector<Vector<FOVMetadata>> fovMetadata2DVec = new Vector<>();
+
+        fovMetadata2DVec.add(null);
+        if (!predFile.exists()) {
+            return fovMetadata2DVec;
+        }
+
+        List<FOVMetadata> rows;
+        try {
+            rows = tokenize(predFile);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return fovMetadata2DVec;
+        }
+
+        int from = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            FOVMetadata row = rows.get(i);
+            if (row.getPathId() == 0 && row.getId() != 1) {
+                fovMetadata2DVec.add(new Vector<>(rows.subList(from, i)));
+                from = i;
+            }
+        }
+        return fovMetadata2DVec;
+    }
+
+    // tokenize the chunks in parallel and concatenate their rows in file order
+    private static List<FOVMetadata> tokenize(File predFile) throws IOException {
+        MappedByteBuffer text;
+        try (FileChannel channel = FileChannel.open(Paths.get(predFile.getPath()), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(predFile + " is larger than 2GB");
+            }
+            text = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        List<ChunkTask> chunks = new ArrayList<>();
+        int length = text.limit();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(length, start + CHUNK_SIZE);
+            while (end < length && text.get(end - 1) != '\n') {
+                end++;
+            }
+            chunks.add(new ChunkTask(predFile, text, start, end));
+            start = end;
+        }
+
+        try {
+            ForkJoinTask.invokeAll(chunks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int size = 0;
+        for (ChunkTask chunk : chunks) {
+            size += chunk.getRawResult().size();
+        }
+        List<FOVMetadata> rows = new ArrayList<>(size);
+        for (ChunkTask chunk : chunks) {
+            rows.addAll(chunk.getRawResult());
+        }
+        return rows;
+    }
+
+    /**
+     * Tokenizer of the lines in [start, end) of the mapped file.
+     */
+    private static class ChunkTask extends RecursiveTask<List<FOVMetadata>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final MappedByteBuffer text;
+        private final int start;
+        private final int end;
+
+        ChunkTask(File file, MappedByteBuffer text, int start, int end) {
+            this.file = file;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<FOVMetadata> compute() {
+            List<FOVMetadata> rows = new ArrayList<>((end - start) / 24 + 1);
+            int[] columns = new int[COLUMNS];
+            int position = start;
+            while (position < end) {
+                byte b = text.get(position);
+                if (b == '\n' || b == '\r') {
+                    position++;
+                    continue;
+                }
+
+                // id pathId x,y,w,h
+                for (int c = 0; c < COLUMNS; c++) {
+                    if (c == 1 || c == 2) {
+                        if (position >= end || (text.get(position) != ' ' && text.get(position) != '\t')) {
+                            throw malformed(position);
+                        }
+                        position++;
+                    } else if (c > 2) {
+                        if (position >= end || text.get(position) != ',') {
+                            throw malformed(position);
+                        }
+                        position++;
+                    }
+                    boolean negative = position < end && text.get(position) == '-';
+                    if (negative) {
+                        position++;
+                    }
+                    int from = position;
+                    int value = 0;
+                    while (position < end && (b = text.get(position)) >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        position++;
+                    }
+                    if (position == from) {
+                        throw malformed(position);
+                    }
+                    columns[c] = negative ? -value : value;
+                }
+
+                // ignore the rest of the line
+                while (position < end && text.get(position) != '\n') {
+                    position++;
+                }
+                rows.add(new FOVMetadata(columns, FOVProtocol.FOV_SIZE_WIDTH, FOVProtocol.FOV_SIZE_HEIGHT));
+            }
+            return rows;
+        }
+
+        private UncheckedIOException malformed(int position) {
+            return new UncheckedIOException(new IOException("Malformed prediction at " + file + ", byte " + position));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded look-ahead buffer between the network stage of VRPlayer, which runs the path decision and
+ * the downloads, and the playback stage, which renders. The network stage can be at most depth
+ * segments ahead of the segment being rendered.
+ *
+ * Buffer occupancy and the time the playback stage waits for the network stage are recorded on
+ * the playback side.
+ */
+public class PrefetchBuffer {
+    private static final PlaybackSegment END = new PlaybackSegment(-1);
+
+    private int depth;
+    private BlockingQueue<PlaybackSegment> queue;
+
+    // only accessed by the playback stage
+    private int taken;
+    private long occupancySum;
+    private int emptyTakes;
+    private long startupNanos;
+    private long stallNanos;
+    private long maxStallNanos;
+
+    /**
+     * Create a buffer.
+     *
+     * @param depth maximum number of downloaded segments waiting for playback, at least 1.
+     */
+    public PrefetchBuffer(int depth) {
+        this.depth = depth;
+        this.queue = new ArrayBlockingQueue<>(depth);
+    }
+
+    /**
+     * Add a downloaded segment, block while the buffer is full. Called by the network stage.
+     *
+     * @param segment segment ready to be rendered.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void put(PlaybackSegment segment) throws InterruptedException {
+        queue.put(segment);
+    }
+
+    /**
+     * Notify the playback stage that no more segments will be added. Called by the network stage.
+     */
+    public void close() {
+        while (true) {
+            try {
+                queue.put(END);
+                return;
+            } catch (InterruptedException e) {
+                // the END marker must be delivered, otherwise the playback stage waits forever
+            }
+        }
+    }
+
+    /**
+     * Get the number of downloaded segments waiting for playback.
+     *
+     * @return number of segments in the buffer.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Get the next segment, block while the buffer is empty. Called by the playback stage.
+     *
+     * @return next segment, or null after the network stage has closed the buffer.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public PlaybackSegment take() throws InterruptedException {
+        int occupancy = queue.size();
+        long start = System.nanoTime();
+        PlaybackSegment segment = queue.take();
+        long waited = System.nanoTime() - start;
+
+        if (segment == END) {
+            return null;
+        }
+        if (taken == 0) {
+            startupNanos = waited;
+        } else {
+            occupancySum += occupancy;
+            if (occupancy == 0) {
+                emptyTakes++;
+                stallNanos += waited;
+                maxStallNanos = Math.max(maxStallNanos, waited);
+            }
+        }
+        taken++;
+        return segment;
+    }
+
+    @Override
+    public String toString() {
+        int afterFirst = Math.max(taken - 1, 1);
+        return "PrefetchBuffer{" +
+                "depth=" + depth +
+                ", segments=" + taken +
+                ", avgOccupancy=" + ((double) occupancySum / afterFirst) +
+                ", stalls=" + emptyTakes +
+                ", startupSec=" + (startupNanos / 1000000000.0) +
+                ", stallSec=" + (stallNanos / 1000000000.0) +
+                ", maxStallSec=" + (maxStallNanos / 1000000000.0) +
+                '}';
+    }
+}
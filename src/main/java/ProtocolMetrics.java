@@ -0,0 +1,318 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms of the SVR-FOV protocol steps and counters of the decisions and bytes of VRServer
+ * or VRPlayer, recorded without locks from any thread.
+ *
+ * The metrics are registered as the MBean vros:type=ProtocolMetrics,role=server (or player). When the
+ * system property svr.metrics.port is set, they are also served in the Prometheus text format on
+ * http://localhost:port/metrics.
+ *
+ * Steps: decision is from the FOV frame to the PATH frame, download is the transfer of a video segment
+ * (sending it on VRServer in direct-serve mode), decode is the rendering of a segment on VRPlayer.
+ * The bytes of VRPlayer are the bytes fetched from the segment store, not the ones served by its cache.
+ * The counters of the off-heap segment cache of VRServer are exported with them once it is attached.
+ */
+public class ProtocolMetrics implements ProtocolMetricsMBean, Closeable {
+    public static final String PORT_PROPERTY = "svr.metrics.port";
+
+    private final String role;
+    private final LatencyHistogram decision = new LatencyHistogram();
+    private final LatencyHistogram download = new LatencyHistogram();
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LongAdder fovHits = new LongAdder();
+    private final LongAdder badFallbacks = new LongAdder();
+    private final LongAdder fullResponses = new LongAdder();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private volatile OffHeapSegmentCache cache;     // null if VRServer runs without the cache
+
+    private ObjectName objectName;
+    private HttpServer httpServer;
+
+    /**
+     * Create metrics that are not exported.
+     *
+     * @param role server or player, the label of the exported metrics.
+     */
+    public ProtocolMetrics(String role) {
+        this.role = role;
+    }
+
+    /**
+     * Create the metrics of a process, register them with JMX and start the scrape endpoint if
+     * {@link #PORT_PROPERTY} is set. The metrics are recorded even if they cannot be exported.
+     *
+     * @param role server or player.
+     * @return the metrics.
+     */
+    public static ProtocolMetrics export(String role) {
+        ProtocolMetrics metrics = new ProtocolMetrics(role);
+        try {
+            metrics.objectName = new ObjectName("vros:type=ProtocolMetrics,role=" + role);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(metrics.objectName)) {
+                server.unregisterMBean(metrics.objectName);
+            }
+            server.registerMBean(metrics, metrics.objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+            metrics.objectName = null;
+        }
+
+        String port = System.getProperty(PORT_PROPERTY);
+        if (port != null) {
+            try {
+                metrics.startHttpServer(Integer.parseInt(port));
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Cannot serve metrics on port " + port + ": " + e);
+            }
+        }
+        return metrics;
+    }
+
+    private void startHttpServer(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.start();
+    }
+
+    /**
+     * Export the counters of a segment cache with the metrics.
+     *
+     * @param cache the off-heap cache in front of the segment store.
+     */
+    public void setCache(OffHeapSegmentCache cache) {
+        this.cache = cache;
+    }
+
+    public LatencyHistogram getDecision() {
+        return decision;
+    }
+
+    public LatencyHistogram getDownload() {
+        return download;
+    }
+
+    public LatencyHistogram getDecode() {
+        return decode;
+    }
+
+    public void countFovHit() {
+        fovHits.increment();
+    }
+
+    public void countBadFallback() {
+        badFallbacks.increment();
+    }
+
+    public void countFullResponse() {
+        fullResponses.increment();
+    }
+
+    public void addBytes(long bytes) {
+        bytesTransferred.add(bytes);
+    }
+
+    @Override
+    public long getFovHits() {
+        return fovHits.sum();
+    }
+
+    @Override
+    public long getBadFallbacks() {
+        return badFallbacks.sum();
+    }
+
+    @Override
+    public long getFullResponses() {
+        return fullResponses.sum();
+    }
+
+    @Override
+    public long getBytesTransferred() {
+        return bytesTransferred.sum();
+    }
+
+    @Override
+    public long getDecisionCount() {
+        return decision.getCount();
+    }
+
+    @Override
+    public long getDecisionP50Micros() {
+        return decision.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getDecisionP99Micros() {
+        return decision.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getDecisionP999Micros() {
+        return decision.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getDownloadCount() {
+        return download.getCount();
+    }
+
+    @Override
+    public long getDownloadP50Micros() {
+        return download.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getDownloadP99Micros() {
+        return download.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getDownloadP999Micros() {
+        return download.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getDecodeCount() {
+        return decode.getCount();
+    }
+
+    @Override
+    public long getDecodeP50Micros() {
+        return decode.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getDecodeP99Micros() {
+        return decode.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getDecodeP999Micros() {
+        return decode.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    @Override
+    public long getCacheAdmissions() {
+        return cache != null ? cache.getAdmissions() : 0;
+    }
+
+    @Override
+    public long getCacheRejections() {
+        return cache != null ? cache.getRejections() : 0;
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return cache != null ? cache.getEvictions() : 0;
+    }
+
+    @Override
+    public long getCacheBytes() {
+        return cache != null ? cache.getBytes() : 0;
+    }
+
+    /**
+     * Render the metrics in the Prometheus text format.
+     *
+     * @return the scrape page.
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        String label = "role=\"" + role + "\"";
+        counter(sb, "svr_fov_hits_total", label, getFovHits());
+        counter(sb, "svr_bad_fallbacks_total", label, getBadFallbacks());
+        counter(sb, "svr_full_responses_total", label, getFullResponses());
+        counter(sb, "svr_bytes_transferred_total", label, getBytesTransferred());
+        summary(sb, "svr_decision_latency_seconds", label, decision);
+        summary(sb, "svr_download_latency_seconds", label, download);
+        summary(sb, "svr_decode_latency_seconds", label, decode);
+        if (cache != null) {
+            counter(sb, "svr_cache_hits_total", label, getCacheHits());
+            counter(sb, "svr_cache_misses_total", label, getCacheMisses());
+            counter(sb, "svr_cache_admissions_total", label, getCacheAdmissions());
+            counter(sb, "svr_cache_rejections_total", label, getCacheRejections());
+            counter(sb, "svr_cache_evictions_total", label, getCacheEvictions());
+            metric(sb, "svr_cache_bytes", "gauge", label, getCacheBytes());
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String label, long value) {
+        metric(sb, name, "counter", label, value);
+    }
+
+    private static void metric(StringBuilder sb, String name, String type, String label, long value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append('{').append(label).append("} ").append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String label, LatencyHistogram histogram) {
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (String quantile : new String[]{"0.5", "0.99", "0.999"}) {
+            sb.append(name).append('{').append(label).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(Double.parseDouble(quantile) * 100) / 1e9).append('\n');
+        }
+        sb.append(name).append("_sum{").append(label).append("} ").append(histogram.getSum() / 1e9).append('\n');
+        sb.append(name).append("_count{").append(label).append("} ").append(histogram.getCount()).append('\n');
+    }
+
+    /**
+     * Stop the scrape endpoint and unregister the MBean.
+     */
+    @Override
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[METRICS " + role + "] fov hits: " + getFovHits()
+                + ", BAD fallbacks: " + getBadFallbacks()
+                + ", FULL responses: " + getFullResponses()
+                + ", bytes: " + getBytesTransferred()
+                + "\n[METRICS " + role + "] decision " + decision
+                + "\n[METRICS " + role + "] download " + download
+                + "\n[METRICS " + role + "] decode " + decode
+                + (cache != null ? "\n[METRICS " + role + "] " + cache : "");
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * JMX view of {@link ProtocolMetrics}, latencies are in microseconds. The cache counters are 0 without
+ * an off-heap cache.
+ */
+public interface ProtocolMetricsMBean {
+    long getFovHits();
+
+    long getBadFallbacks();
+
+    long getFullResponses();
+
+    long getBytesTransferred();
+
+    long getDecisionCount();
+
+    long getDecisionP50Micros();
+
+    long getDecisionP99Micros();
+
+    long getDecisionP999Micros();
+
+    long getDownloadCount();
+
+    long getDownloadP50Micros();
+
+    long getDownloadP99Micros();
+
+    long getDownloadP999Micros();
+
+    long getDecodeCount();
+
+    long getDecodeP50Micros();
+
+    long getDecodeP99Micros();
+
+    long getDecodeP999Micros();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheAdmissions();
+
+    long getCacheRejections();
+
+    long getCacheEvictions();
+
+    long getCacheBytes();
+}
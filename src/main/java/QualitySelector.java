@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * Choose the quality representation of every download of VRPlayer. The chosen quality is the best
+ * one whose download is expected to finish, at the estimated throughput, before the segments waiting
+ * for playback are rendered; if none is, the smallest download is chosen. Without an estimator the
+ * original encoding is always chosen.
+ */
+public class QualitySelector {
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;    // smaller downloads mostly measure the latency
+    private static final double SAFETY = 0.8;                   // part of the buffered play time a download may take
+
+    private final BandwidthEstimator estimator;
+    private final long segmentNanos;
+    private long[] choices = new long[1];   // number of downloads per quality
+    private int switches;
+    private int last = -1;
+
+    /**
+     * Create a selector.
+     *
+     * @param estimator    throughput estimator, null to always choose quality 0.
+     * @param segmentNanos play time of a video segment.
+     */
+    public QualitySelector(BandwidthEstimator estimator, long segmentNanos) {
+        this.estimator = estimator;
+        this.segmentNanos = segmentNanos;
+    }
+
+    /**
+     * Feed the estimator with a finished download.
+     *
+     * @param bytes number of downloaded bytes.
+     * @param nanos duration of the download.
+     */
+    public void sample(long bytes, long nanos) {
+        if (estimator != null && bytes >= MIN_SAMPLE_BYTES) {
+            estimator.sample(bytes, nanos);
+        }
+    }
+
+    /**
+     * Choose the quality of a download.
+     *
+     * @param sizes            byte size of the download per quality, quality 0 first, -1 if unknown.
+     * @param bufferedSegments segments downloaded and waiting for playback.
+     * @param elapsedNanos     time already spent on the segment, by the download of its fov path for example.
+     * @return the chosen quality.
+     */
+    public int select(long[] sizes, int bufferedSegments, long elapsedNanos) {
+        int quality = 0;
+        if (estimator != null && sizes.length > 1) {
+            double seconds = ((bufferedSegments + 1) * segmentNanos * SAFETY - elapsedNanos) / 1e9;
+            double budget = estimator.getBytesPerSecond() * Math.max(0, seconds);
+            quality = -1;
+            for (int i = 0; i < sizes.length && quality < 0; i++) {
+                if (sizes[i] >= 0 && sizes[i] <= budget) {
+                    quality = i;
+                }
+            }
+            if (quality < 0) {
+                quality = smallest(sizes);
+            }
+        }
+
+        if (quality >= choices.length) {
+            choices = Arrays.copyOf(choices, quality + 1);
+        }
+        choices[quality]++;
+        if (last >= 0 && quality != last) {
+            switches++;
+        }
+        last = quality;
+        return quality;
+    }
+
+    // quality of the smallest known size, 0 if no size is known
+    private static int smallest(long[] sizes) {
+        int quality = 0;
+        for (int i = 1; i < sizes.length; i++) {
+            if (sizes[i] >= 0 && (sizes[quality] < 0 || sizes[i] < sizes[quality])) {
+                quality = i;
+            }
+        }
+        return quality;
+    }
+
+    @Override
+    public String toString() {
+        return "[ABR] estimate: " + (estimator == null ? "none" : (long) (estimator.getBytesPerSecond() / 1024) + " KB/s")
+                + ", downloads per quality: " + Arrays.toString(choices)
+                + ", switches: " + switches;
+    }
+}
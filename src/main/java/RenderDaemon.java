@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller of ./render in daemon mode. One decoder process keeps its playbin and video sink for
+ * the whole playback and plays the queued segments back to back, instead of a process per segment
+ * as {@link PlayNative} does. The source, demuxer and decoder are still rebuilt and prerolled for
+ * every segment, only the process start and the sink creation are saved.
+ *
+ * The commands go to the stdin of the process and the replies come back on its stdout, one line
+ * each, see run_daemon in render.c. A play is queued at once and is done when the daemon replies to
+ * it, the daemon replies in the order of the commands.
+ */
+public class RenderDaemon implements Closeable {
+    // system property of VRPlayer, "daemon" (default) or "process" for a process per segment
+    public static final String PROPERTY = "svr.render";
+    private static final String COMMAND = "./render";
+    private static final long EXIT_TIMEOUT_MS = 2000;
+
+    private final Process process;
+    private final Writer commands;
+    private final BufferedReader replies;
+    private final BlockingQueue<Ticket> pending = new LinkedBlockingQueue<>();
+    private final Thread replyThread;
+    private String failure;     // why the daemon stopped replying, null while it runs, guarded by this
+
+    /**
+     * A queued play.
+     */
+    public static class Ticket {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long queuedNanos = System.nanoTime();
+        private long renderNanos;
+        private String error;
+
+        private void complete(long renderNanos, String error) {
+            this.renderNanos = renderNanos;
+            this.error = error;
+            done.countDown();
+        }
+
+        /**
+         * Wait until the daemon has played the frame range.
+         *
+         * @return nanoseconds the daemon spent on it, not counting the wait behind the previous plays.
+         * @throws IOException          when the daemon cannot play it.
+         * @throws InterruptedException when interrupted while waiting.
+         */
+        public long await() throws IOException, InterruptedException {
+            done.await();
+            if (error != null) {
+                throw new IOException(error);
+            }
+            return renderNanos;
+        }
+    }
+
+    private RenderDaemon(Process process) {
+        this.process = process;
+        this.commands = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.replies = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        this.replyThread = new Thread(this::readReplies, "render-daemon");
+        this.replyThread.setDaemon(true);
+    }
+
+    /**
+     * Start ./render --daemon and wait until its playbin and sink are built.
+     *
+     * @return the running daemon.
+     * @throws IOException when ./render cannot be started or does not support the daemon mode.
+     */
+    public static RenderDaemon start() throws IOException {
+        Process process = new ProcessBuilder(COMMAND, "--daemon")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        RenderDaemon daemon = new RenderDaemon(process);
+        String ready = daemon.replies.readLine();
+        if (!"ready".equals(ready)) {
+            process.destroy();
+            throw new IOException(COMMAND + " does not support --daemon, got: " + ready);
+        }
+        daemon.replyThread.start();
+        return daemon;
+    }
+
+    /**
+     * Queue a frame range of a video file, see {@link PlayNative#PlayNative(String, int, int)}.
+     *
+     * @param filename   the relative path of the video file.
+     * @param startFrame the frame number that we want to start with.
+     * @param endFrame   the index of frame that we want to stop for, -1 for the end of the file.
+     * @return ticket of the play.
+     * @throws IOException when the daemon has stopped.
+     */
+    public synchronized Ticket play(String filename, int startFrame, int endFrame) throws IOException {
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        Ticket ticket = new Ticket();
+        // queued before the command is written, so the reply always finds it
+        pending.add(ticket);
+        try {
+            commands.write("play " + startFrame + " " + endFrame + " " + PlayNative.getFileUriFromName(filename) + "\n");
+            commands.flush();
+        } catch (IOException e) {
+            pending.remove(ticket);
+            throw e;
+        }
+        return ticket;
+    }
+
+    // complete the tickets in the order of the replies, fail the rest when the daemon exits
+    private void readReplies() {
+        long lastReplyNanos = 0;
+        String reason;
+        try {
+            String reply;
+            while ((reply = replies.readLine()) != null) {
+                Ticket ticket = pending.poll();
+                if (ticket == null) {
+                    System.err.println("[RENDER] Unexpected reply: " + reply);
+                    continue;
+                }
+                long now = System.nanoTime();
+                long renderNanos = now - Math.max(ticket.queuedNanos, lastReplyNanos);
+                lastReplyNanos = now;
+                ticket.complete(renderNanos, reply.equals("done") ? null : "[RENDER] " + reply);
+            }
+            reason = COMMAND + " exited";
+        } catch (IOException e) {
+            reason = COMMAND + " failed: " + e.getMessage();
+        }
+        // no play can be queued once the failure is set
+        synchronized (this) {
+            failure = reason;
+            Ticket ticket;
+            while ((ticket = pending.poll()) != null) {
+                ticket.complete(0, failure);
+            }
+        }
+    }
+
+    /**
+     * Let the daemon finish the queued plays and exit.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            try {
+                commands.write("quit\n");
+                commands.close();
+            } catch (IOException e) {
+                // already exited
+            }
+        }
+        try {
+            if (!process.waitFor(EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                process.destroy();
+            }
+            replyThread.join(EXIT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Segment store on Amazon S3.
+ */
+public class S3SegmentStore extends SegmentStore {
+    public static final String DEFAULT_BUCKET = "vros-video-segments";
+
+    private AmazonS3 s3;
+    private String bucketName;
+
+    /**
+     * Setup the S3 client, the credentials are read from ~/.aws/credentials.
+     *
+     * @param bucketName bucket of the video segments.
+     */
+    public S3SegmentStore(String bucketName) {
+        this.bucketName = bucketName;
+        this.s3 = new AmazonS3Client();
+        this.s3.setRegion(Region.getRegion(Regions.US_EAST_1));
+    }
+
+    @Override
+    public long size(String key) throws FileNotFoundException {
+        try {
+            return s3.getObjectMetadata(bucketName, key).getContentLength();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                throw new FileNotFoundException(key);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws FileNotFoundException {
+        return getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public InputStream open(String key, long start, long end) throws FileNotFoundException {
+        return getObject(new GetObjectRequest(bucketName, key).withRange(start, end - 1));
+    }
+
+    // a missing object is reported as FileNotFoundException like the other stores
+    private InputStream getObject(GetObjectRequest request) throws FileNotFoundException {
+        try {
+            return s3.getObject(request).getObjectContent();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                throw new FileNotFoundException(request.getKey());
+            }
+            throw e;
+        }
+    }
+
+    // closing an S3 stream reads the rest of the object
+    @Override
+    protected void abort(InputStream in) {
+        ((S3ObjectInputStream) in).abort();
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serve one VRPlayer following the SVR-FOV protocol. Every session has its own segment cursor so
+ * that VRServer can run many of them at the same time.
+ */
+public class SVRSession implements Runnable {
+    private final int sessionId;
+    private final SessionChannel session;
+    private final SegmentManifest fullSizeManifest;
+    private final SegmentStore store;
+    private final String name;
+    private final Map<String, Long> segmentSizes;  // byte size of every store key, shared by all the sessions
+    private final ProtocolMetrics metrics;
+    private final MissModel missModel;
+    private int segId;      // the video segment that the next fov metadata belongs to
+    private double lastCover = -1;  // cover of the last fov path decision, -1 after FULL
+
+    /**
+     * Setup a session for an accepted VRPlayer.
+     *
+     * @param sessionId        identifier of the session, only used for logging.
+     * @param session          the session connection of the VRPlayer.
+     * @param fullSizeManifest manifest shared by all the sessions, read only.
+     * @param store            store of the video segments that are served directly.
+     * @param name             name of the video.
+     * @param segmentSizes     concurrent map that caches the byte size of the video segments.
+     * @param metrics          metrics shared by all the sessions.
+     * @param missModel        miss probability of the paths, learned from the results of all the sessions.
+     */
+    public SVRSession(int sessionId, SessionChannel session, SegmentManifest fullSizeManifest,
+                      SegmentStore store, String name, Map<String, Long> segmentSizes, ProtocolMetrics metrics,
+                      MissModel missModel) {
+        this.sessionId = sessionId;
+        this.session = session;
+        this.fullSizeManifest = fullSizeManifest;
+        this.store = store;
+        this.name = name;
+        this.segmentSizes = segmentSizes;
+        this.metrics = metrics;
+        this.missModel = missModel;
+        this.segId = 1;
+    }
+
+    /**
+     * Answer every fov metadata with a path decision and every fetch with the segment until the
+     * VRPlayer ends the session.
+     */
+    public void run() {
+        try (SessionChannel session = this.session) {
+            while (true) {
+                byte frameType = session.receive();
+                if (frameType == SessionChannel.END) {
+                    break;
+                } else if (frameType == SessionChannel.HELLO) {
+                    session.sendManifest(fullSizeManifest.getVideoSegmentAmount());
+                    System.out.println("[SESSION " + sessionId + "][STEP 0-1] send segment amount: "
+                            + fullSizeManifest.getVideoSegmentAmount());
+                    continue;
+                } else if (frameType == SessionChannel.RESULT) {
+                    // the result belongs to the last decided segment, VRPlayer fetches it from the missed GOP
+                    if (lastCover >= 0) {
+                        missModel.record(lastCover, session.getCode() == FOVProtocol.BAD);
+                    }
+                    if (session.getCode() == FOVProtocol.BAD) {
+                        metrics.countBadFallback();
+                        // VRPlayer looks for another path that covers the rest before the full size segment
+                        VideoSegmentManifest.VideoSegmentMetaData missed = fullSizeManifest.getSegment(segId - 1);
+                        long[][] pathsSizes = new long[missed.getPathVec().size()][];
+                        for (int pathId = 0; pathId < pathsSizes.length; pathId++) {
+                            pathsSizes[pathId] = getPathSizes(missed, segId - 1, pathId);
+                        }
+                        session.sendPaths(missed.getPathVec(), pathsSizes);
+                        session.sendGOPIndex(missed.getGopIndex());
+                    } else {
+                        metrics.countFovHit();
+                    }
+                    continue;
+                } else if (frameType == SessionChannel.FETCH) {
+                    serveSegment(session.getKey(), session.getStart(), session.getEnd());
+                    continue;
+                } else if (frameType != SessionChannel.FOV) {
+                    System.err.println("[SESSION " + sessionId + "] Unexpected frame type: " + frameType);
+                    break;
+                }
+
+                if (segId > fullSizeManifest.getVideoSegmentAmount()) {
+                    System.err.println("[SESSION " + sessionId + "] Request beyond the last segment");
+                    session.sendEnd();
+                    break;
+                }
+
+                // Inspect storage fullSizeManifest to know if there is a matched video segment,
+                // if yes, send the FOV with the least expected bytes,
+                // if no, send FULL.
+                long start = System.nanoTime();
+                FOVMetadata userFOVMetaData = session.getFOVMetadata();
+                FOVMetadata envelope = session.getEnvelope();
+                VideoSegmentManifest.VideoSegmentMetaData segment = fullSizeManifest.getSegment(segId);
+                int sizeMsg = segment.choosePath(userFOVMetaData, envelope, FOVProtocol.THRESHOLD, missModel);
+
+                // VRPlayer chooses the quality of the segment and of the full size fallback from their sizes
+                FOVMetadata path;
+                long[] fullSizes = getFullSizes(segment, segId);
+                long[] sizes;
+                if (FOVProtocol.isFOV(sizeMsg)) {
+                    path = segment.getPathVec().get(sizeMsg);
+                    sizes = getPathSizes(segment, segId, sizeMsg);
+                    lastCover = segment.getCover(sizeMsg, userFOVMetaData, envelope);
+                } else {
+                    metrics.countFullResponse();
+                    path = new FOVMetadata(segId, sizeMsg, 0, 0, FOVProtocol.FULL_SIZE_WIDTH, FOVProtocol.FULL_SIZE_HEIGHT);
+                    sizes = fullSizes;
+                    lastCover = -1;
+                }
+                session.sendPath(sizeMsg, path, sizes, fullSizes);
+                metrics.getDecision().recordSince(start);
+                segId++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // sizes of the fov segment of a path in every quality, from the manifest or else from the store
+    private long[] getPathSizes(VideoSegmentManifest.VideoSegmentMetaData segment, int segId, int pathId) {
+        long[] sizes = new long[segment.getQualityCount()];
+        for (int quality = 0; quality < sizes.length; quality++) {
+            sizes[quality] = segment.getPathSize(pathId, quality);
+            if (sizes[quality] < 0) {
+                sizes[quality] = getSegmentSize(Utilities.getServerFOVSegmentName(
+                        Utilities.getRepresentationName(name, quality) + "-fov", segId, pathId));
+            }
+        }
+        return sizes;
+    }
+
+    // sizes of the full size segment in every quality, from the manifest or else from the store
+    private long[] getFullSizes(VideoSegmentManifest.VideoSegmentMetaData segment, int segId) {
+        long[] sizes = new long[segment.getQualityCount()];
+        for (int quality = 0; quality < sizes.length; quality++) {
+            sizes[quality] = segment.getFullSize(quality);
+            if (sizes[quality] < 0) {
+                sizes[quality] = getSegmentSize(Utilities.getServerFullSizeSegmentName(
+                        Utilities.getRepresentationName(name, quality) + "-full", "output", segId));
+            }
+        }
+        return sizes;
+    }
+
+    // look up the store once per key, -1 if the store cannot tell the size
+    private long getSegmentSize(String key) {
+        Long size = segmentSizes.get(key);
+        if (size == null) {
+            try {
+                size = store.size(key);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[SESSION " + sessionId + "] No size of " + key + ": " + e.getMessage());
+                size = -1L;
+            }
+            segmentSizes.put(key, size);
+        }
+        return size;
+    }
+
+    // STEP 5 in direct-serve mode, VRServer sends the segment instead of S3
+    private void serveSegment(String key, long start, long end) throws IOException {
+        // only serve keys inside the store
+        if (key.startsWith("/") || key.contains("..") || key.contains("\\")) {
+            System.err.println("[SESSION " + sessionId + "] Reject key: " + key);
+            session.sendMissing();
+            return;
+        }
+        long startTime = System.nanoTime();
+        metrics.addBytes(session.sendSegment(store, key, start, end));
+        metrics.getDownload().recordSince(startTime);
+    }
+}
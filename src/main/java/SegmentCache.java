@@ -0,0 +1,371 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Byte bounded LRU cache of video segments in front of another segment store, so replays and
+ * repeated FULL fallbacks do not download the same segment again.
+ *
+ * Segments are keyed by (video, segment, path) and kept in two tiers, each with its own byte
+ * budget: the memory tier holds the bytes of the most recently used segments, the disk tier keeps
+ * a copy of every cached segment under a directory with the layout of the store, so it survives a
+ * restart of VRPlayer. A disk hit is promoted to the memory tier. Keys that are not segments, e.g.
+ * the manifest, and byte ranges of segments that are not cached go to the backend directly.
+ */
+public class SegmentCache extends SegmentStore {
+    private static final Pattern FULL_KEY = Pattern.compile("(.+)-full/output_(\\d+)\\.mp4");
+    private static final Pattern FOV_KEY = Pattern.compile("(.+)-fov/(\\d+)/(\\d+)\\.mp4");
+    private static final byte[] ON_DISK = new byte[0];     // lookup result of a segment only in the disk tier
+
+    private SegmentStore backend;
+    private Path dir;
+    private LocalSegmentStore diskStore;
+    private long memoryBudget;
+    private long diskBudget;
+
+    // access ordered, the eldest entry is the least recently used one
+    private LinkedHashMap<SegmentKey, byte[]> memoryTier;
+    private LinkedHashMap<SegmentKey, Long> diskTier;     // size of the cached file
+    private long memoryBytes;
+    private long diskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long memoryEvictions;
+    private long diskEvictions;
+
+    /**
+     * Identifier of a cached video segment.
+     */
+    public static class SegmentKey {
+        private final String video;
+        private final int segId;
+        private final int pathId;   // FOVProtocol.FULL for the full size segment
+        private final String storeKey;
+
+        public SegmentKey(String video, int segId, int pathId, String storeKey) {
+            this.video = video;
+            this.segId = segId;
+            this.pathId = pathId;
+            this.storeKey = storeKey;
+        }
+
+        /**
+         * Parse a key built by {@link Utilities#getServerFullSizeSegmentName} or
+         * {@link Utilities#getServerFOVSegmentName}.
+         *
+         * @param storeKey key in the segment store.
+         * @return the segment key, or null if the key is not a video segment.
+         */
+        public static SegmentKey fromStoreKey(String storeKey) {
+            Matcher full = FULL_KEY.matcher(storeKey);
+            if (full.matches()) {
+                return new SegmentKey(full.group(1), Integer.parseInt(full.group(2)), FOVProtocol.FULL, storeKey);
+            }
+            Matcher fov = FOV_KEY.matcher(storeKey);
+            if (fov.matches()) {
+                return new SegmentKey(fov.group(1), Integer.parseInt(fov.group(2)),
+                        Integer.parseInt(fov.group(3)), storeKey);
+            }
+            return null;
+        }
+
+        public String getStoreKey() {
+            return storeKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SegmentKey)) {
+                return false;
+            }
+            SegmentKey that = (SegmentKey) o;
+            return segId == that.segId && pathId == that.pathId && video.equals(that.video);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(video, segId, pathId);
+        }
+
+        @Override
+        public String toString() {
+            return video + "#" + segId + ":" + (FOVProtocol.isFull(pathId) ? "FULL" : Integer.toString(pathId));
+        }
+    }
+
+    /**
+     * Put a cache in front of a segment store.
+     *
+     * @param backend      the store to fetch the missed segments from.
+     * @param dir          directory of the disk tier, cached segments found in it are reused.
+     * @param memoryBudget maximum bytes of the memory tier, 0 disables it.
+     * @param diskBudget   maximum bytes of the disk tier, 0 disables it.
+     * @throws IOException when the directory cannot be created or read.
+     */
+    public SegmentCache(SegmentStore backend, String dir, long memoryBudget, long diskBudget) throws IOException {
+        this.backend = backend;
+        this.dir = Paths.get(dir);
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        this.memoryTier = new LinkedHashMap<>(16, 0.75f, true);
+        this.diskTier = new LinkedHashMap<>(16, 0.75f, true);
+
+        Files.createDirectories(this.dir);
+        this.diskStore = new LocalSegmentStore(dir);
+        loadDiskTier();
+    }
+
+    // register the segments left by a previous run, the oldest file is the least recently used
+    private void loadDiskTier() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.add(path);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+        for (Path path : files) {
+            SegmentKey key = SegmentKey.fromStoreKey(dir.relativize(path).toString().replace(File.separatorChar, '/'));
+            if (key != null) {
+                diskTier.put(key, path.toFile().length());
+                diskBytes += path.toFile().length();
+            }
+        }
+        evictDisk();
+    }
+
+    /**
+     * Look up a segment, count the hit or the miss. A disk hit is read without holding the lock, which
+     * is only taken to update the LRU of the tiers.
+     *
+     * @param key the segment.
+     * @return the bytes of the segment if it is in the memory tier, ON_DISK if it is only in the disk
+     * tier, or null on a miss.
+     */
+    private byte[] lookup(SegmentKey key) throws IOException {
+        synchronized (this) {
+            byte[] bytes = memoryTier.get(key);
+            if (bytes != null) {
+                memoryHits++;
+                if (diskTier.containsKey(key)) {
+                    diskTier.get(key);  // keep the recency of both tiers in sync
+                }
+                return bytes;
+            }
+            Long diskSize = diskTier.get(key);
+            if (diskSize == null) {
+                misses++;
+                return null;
+            }
+            diskHits++;
+            if (diskSize > memoryBudget) {
+                return ON_DISK;
+            }
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(diskStore.getPath(key.getStoreKey()));
+        } catch (NoSuchFileException e) {
+            // evicted by another thread meanwhile, fetched from the backend like a miss
+            synchronized (this) {
+                diskHits--;
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            putMemory(key, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Add a downloaded segment to both tiers. The segment is copied to a temporary file of the disk
+     * tier without holding the lock, which is only taken to move it in place and update the LRU.
+     *
+     * @param key  the segment.
+     * @param file the downloaded segment.
+     */
+    private void put(SegmentKey key, Path file) throws IOException {
+        long size = Files.size(file);
+        if (size <= memoryBudget) {
+            byte[] bytes = Files.readAllBytes(file);
+            synchronized (this) {
+                putMemory(key, bytes);
+            }
+        }
+        if (size > diskBudget) {
+            return;
+        }
+        synchronized (this) {
+            if (diskTier.containsKey(key)) {
+                return;
+            }
+        }
+
+        Path cached = diskStore.getPath(key.getStoreKey());
+        Files.createDirectories(cached.getParent());
+        Path temp = Files.createTempFile(cached.getParent(), cached.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                // another thread may have cached the same segment meanwhile
+                if (!diskTier.containsKey(key)) {
+                    Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    diskTier.put(key, size);
+                    diskBytes += size;
+                    evictDisk();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void putMemory(SegmentKey key, byte[] bytes) {
+        byte[] old = memoryTier.put(key, bytes);
+        if (old != null) {
+            memoryBytes -= old.length;
+        }
+        memoryBytes += bytes.length;
+        Iterator<Map.Entry<SegmentKey, byte[]>> eldest = memoryTier.entrySet().iterator();
+        while (memoryBytes > memoryBudget && eldest.hasNext()) {
+            memoryBytes -= eldest.next().getValue().length;
+            eldest.remove();
+            memoryEvictions++;
+        }
+    }
+
+    private void evictDisk() throws IOException {
+        Iterator<Map.Entry<SegmentKey, Long>> eldest = diskTier.entrySet().iterator();
+        while (diskBytes > diskBudget && eldest.hasNext()) {
+            Map.Entry<SegmentKey, Long> entry = eldest.next();
+            Files.deleteIfExists(diskStore.getPath(entry.getKey().getStoreKey()));
+            diskBytes -= entry.getValue();
+            eldest.remove();
+            diskEvictions++;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return backend.size(key);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        SegmentKey segmentKey = SegmentKey.fromStoreKey(key);
+        byte[] bytes = segmentKey == null ? null : lookup(segmentKey);
+        if (bytes == null) {
+            return backend.open(key);
+        } else if (bytes == ON_DISK) {
+            return diskStore.open(key);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    // only served from the cache when the segment is already there, a range does not fill the cache
+    @Override
+    public InputStream open(String key, long start, long end) throws IOException {
+        SegmentKey segmentKey = SegmentKey.fromStoreKey(key);
+        byte[] bytes = segmentKey == null ? null : lookup(segmentKey);
+        if (bytes == null) {
+            return backend.open(key, start, end);
+        } else if (bytes == ON_DISK) {
+            return diskStore.open(key, start, end);
+        }
+        int to = (int) Math.min(end, bytes.length);
+        int from = (int) Math.min(start, to);
+        return new ByteArrayInputStream(bytes, from, to - from);
+    }
+
+    // a single lookup for all the ranges, so a partial fetch is counted as one access like a download
+    @Override
+    public void downloadRanges(String key, long[][] ranges, RandomAccessFile raf, AtomicLong fetched) throws IOException {
+        SegmentKey segmentKey = SegmentKey.fromStoreKey(key);
+        byte[] bytes = segmentKey == null ? null : lookup(segmentKey);
+        if (bytes == null) {
+            backend.downloadRanges(key, ranges, raf, fetched);
+        } else if (bytes == ON_DISK) {
+            diskStore.downloadRanges(key, ranges, raf, new AtomicLong());
+        } else {
+            for (long[] range : ranges) {
+                int to = (int) Math.min(range[1], bytes.length);
+                if (range[0] < to) {
+                    raf.seek(range[0]);
+                    raf.write(bytes, (int) range[0], to - (int) range[0]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        SegmentKey segmentKey = SegmentKey.fromStoreKey(key);
+        byte[] bytes = segmentKey == null ? null : lookup(segmentKey);
+        if (bytes == null) {
+            return backend.read(key);
+        } else if (bytes == ON_DISK) {
+            return diskStore.read(key);
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        download(key, path, progress, new AtomicLong());
+    }
+
+    /**
+     * Copy a segment from the cache, or download it from the backend and add it to the cache once
+     * the download completes. A cancelled download is not cached. Only the bytes downloaded from the
+     * backend are counted as fetched.
+     */
+    @Override
+    public void download(String key, String path, AtomicLong progress, AtomicLong fetched) throws IOException {
+        SegmentKey segmentKey = SegmentKey.fromStoreKey(key);
+        if (segmentKey == null) {
+            backend.download(key, path, progress, fetched);
+            return;
+        }
+        byte[] bytes = lookup(segmentKey);
+        if (bytes == null) {
+            backend.download(key, path, progress, fetched);
+            put(segmentKey, Paths.get(path));
+        } else if (bytes == ON_DISK) {
+            diskStore.download(key, path, progress);
+        } else {
+            Files.write(Paths.get(path), bytes);
+            progress.addAndGet(bytes.length);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        backend.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[SEGMENT CACHE] memory hits: " + memoryHits
+                + ", disk hits: " + diskHits
+                + ", misses: " + misses
+                + ", memory evictions: " + memoryEvictions
+                + ", disk evictions: " + diskEvictions
+                + ", memory bytes: " + memoryBytes + "/" + memoryBudget
+                + ", disk bytes: " + diskBytes + "/" + diskBudget;
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Read access to the predicted paths and the key frames of every video segment of a video, shared
+ * by the json manifest and the memory-mapped binary manifest.
+ */
+public interface SegmentManifest {
+    /**
+     * Get the total number of video segments.
+     *
+     * @return the total of video segments.
+     */
+    int getVideoSegmentAmount();
+
+    /**
+     * Get the metadata of a video segment.
+     *
+     * @param segId identifier of the video segment, starts from 1.
+     * @return metadata of the video segment.
+     */
+    VideoSegmentManifest.VideoSegmentMetaData getSegment(int segId);
+
+    /**
+     * Download the manifest of a video and open it, the binary manifest name-manifest.bin is
+     * preferred, otherwise the json manifest name-manifest.txt is parsed.
+     *
+     * @param store     store of the manifest.
+     * @param name      name of the video.
+     * @param localPath path of the downloaded manifest without extension.
+     * @return the opened manifest.
+     * @throws IOException when neither manifest can be downloaded.
+     */
+    static SegmentManifest fetch(SegmentStore store, String name, String localPath) throws IOException {
+        try {
+            store.download(name + "-manifest.bin", localPath + ".bin");
+            return BinaryManifest.open(localPath + ".bin");
+        } catch (FileNotFoundException e) {
+            store.download(name + "-manifest.txt", localPath + ".txt");
+            try (BufferedReader reader = new BufferedReader(new FileReader(localPath + ".txt"))) {
+                return VideoSegmentManifest.fromJson(reader);
+            }
+        }
+    }
+}
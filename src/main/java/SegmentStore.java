@@ -0,0 +1,294 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage of the video segments and manifest files. The keys follow the S3 layout, e.g.
+ * rhino-manifest.txt, rhino-full/output_1.mp4 from {@link Utilities#getServerFullSizeSegmentName} and
+ * rhino-fov/1/0.mp4 from {@link Utilities#getServerFOVSegmentName}.
+ */
+abstract public class SegmentStore implements Closeable {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Get the size of an object.
+     *
+     * @param key key of the object.
+     * @return size in bytes.
+     * @throws IOException when the object does not exist.
+     */
+    abstract public long size(String key) throws IOException;
+
+    /**
+     * Open an object for reading.
+     *
+     * @param key key of the object.
+     * @return stream of the whole object.
+     * @throws IOException when the object does not exist.
+     */
+    abstract public InputStream open(String key) throws IOException;
+
+    /**
+     * Open a byte range of an object for reading.
+     *
+     * @param key   key of the object.
+     * @param start first byte of the range.
+     * @param end   end of the range, exclusive.
+     * @return stream of the range.
+     * @throws IOException when the object does not exist.
+     */
+    abstract public InputStream open(String key, long start, long end) throws IOException;
+
+    /**
+     * Read a whole object into a buffer.
+     *
+     * @param key key of the object.
+     * @return read only buffer holding the object.
+     * @throws IOException when the object does not exist.
+     */
+    public ByteBuffer read(String key) throws IOException {
+        byte[] bytes = new byte[(int) size(key)];
+        try (DataInputStream in = new DataInputStream(open(key))) {
+            in.readFully(bytes);
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy an object to the file system.
+     *
+     * @param key  key of the object.
+     * @param path path of the copied file.
+     * @throws IOException when the object does not exist or the file cannot be written.
+     */
+    public void download(String key, String path) throws IOException {
+        download(key, path, new AtomicLong());
+    }
+
+    /**
+     * Copy an object to the file system, count the written bytes and stop when the thread is
+     * interrupted.
+     *
+     * @param key      key of the object.
+     * @param path     path of the copied file.
+     * @param progress counter of the written bytes.
+     * @throws InterruptedIOException when the thread is interrupted.
+     * @throws IOException            when the object does not exist or the file cannot be written.
+     */
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        InputStream in = open(key);
+        try (OutputStream out = new FileOutputStream(path)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    abort(in);
+                    throw new InterruptedIOException("Download of " + key + " is cancelled");
+                }
+                out.write(buffer, 0, read);
+                progress.addAndGet(read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy an object to the file system like {@link #download(String, String, AtomicLong)} and count
+     * the bytes fetched from where the store keeps its objects, which are all the written bytes
+     * unless the store is a cache that serves the object itself.
+     *
+     * @param key      key of the object.
+     * @param path     path of the copied file.
+     * @param progress counter of the written bytes.
+     * @param fetched  counter of the fetched bytes.
+     * @throws InterruptedIOException when the thread is interrupted.
+     * @throws IOException            when the object does not exist or the file cannot be written.
+     */
+    public void download(String key, String path, AtomicLong progress, AtomicLong fetched) throws IOException {
+        long written = progress.get();
+        try {
+            download(key, path, progress);
+        } finally {
+            fetched.addAndGet(progress.get() - written);
+        }
+    }
+
+    /**
+     * Copy a byte range of an object to the same offset of a file.
+     *
+     * @param key   key of the object.
+     * @param start first byte of the range.
+     * @param end   end of the range, exclusive.
+     * @param raf   the file to write.
+     * @throws IOException when the object does not exist or the file cannot be written.
+     */
+    public void downloadRange(String key, long start, long end, RandomAccessFile raf) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        try (InputStream in = open(key, start, end)) {
+            raf.seek(start);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                raf.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Copy several byte ranges of an object to the same offsets of a file, e.g. the header and the
+     * GOPs of a partially fetched segment. It is one access of the object.
+     *
+     * @param key     key of the object.
+     * @param ranges  start and exclusive end of every range.
+     * @param raf     the file to write.
+     * @param fetched counter of the bytes fetched from where the store keeps its objects.
+     * @throws IOException when the object does not exist or the file cannot be written.
+     */
+    public void downloadRanges(String key, long[][] ranges, RandomAccessFile raf, AtomicLong fetched) throws IOException {
+        for (long[] range : ranges) {
+            downloadRange(key, range[0], range[1], raf);
+            fetched.addAndGet(Math.max(0, range[1] - range[0]));
+        }
+    }
+
+    /**
+     * Write a byte range of an object to a channel, e.g. the socket of a VRPlayer session.
+     *
+     * @param key    key of the object.
+     * @param start  first byte of the range.
+     * @param end    end of the range, exclusive, it must not be beyond the end of the object.
+     * @param target channel to write.
+     * @throws IOException when the object does not exist or the channel cannot be written.
+     */
+    public void transferTo(String key, long start, long end, WritableByteChannel target) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        try (InputStream in = open(key, start, end)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                writeFully(ByteBuffer.wrap(buffer, 0, read), target);
+            }
+        }
+    }
+
+    /**
+     * Write all the remaining bytes of a buffer to a channel.
+     *
+     * @param buffer content to write.
+     * @param target channel to write.
+     * @throws IOException when the channel cannot be written.
+     */
+    protected static void writeFully(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Give up a stream that is not read to the end. Backends whose close() would read the rest of
+     * the stream should override this.
+     *
+     * @param in stream returned by open().
+     */
+    protected void abort(InputStream in) {
+    }
+
+    /**
+     * Write a buffer to a file channel in chunks, count the written bytes and stop when the thread is
+     * interrupted.
+     *
+     * @param key      key of the object, only used for the error message.
+     * @param buffer   content to write, its position is moved to its limit.
+     * @param channel  channel of the file.
+     * @param progress counter of the written bytes.
+     * @throws IOException when the channel cannot be written or the thread is interrupted.
+     */
+    protected static void write(String key, ByteBuffer buffer, FileChannel channel, AtomicLong progress) throws IOException {
+        int limit = buffer.limit();
+        while (buffer.position() < limit) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Download of " + key + " is cancelled");
+            }
+            buffer.limit(Math.min(limit, buffer.position() + COPY_BUFFER_SIZE));
+            progress.addAndGet(channel.write(buffer));
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * Release the connections of the store, nothing to do by default.
+     *
+     * @throws IOException when a connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Stream over the remaining bytes of a buffer.
+     */
+    protected static class BufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Create a store from a command line argument.
+     *
+     * @param spec "s3" or "s3:bucket" for Amazon S3, "file:dir" for a local directory, "mem:dir"
+     *             for a local directory that is loaded into memory, and "svr:host:port" for the
+     *             segments served directly by a VRServer.
+     * @return the store.
+     * @throws IOException when the directory cannot be read.
+     */
+    public static SegmentStore fromSpec(String spec) throws IOException {
+        if (spec.equals("s3")) {
+            return new S3SegmentStore(S3SegmentStore.DEFAULT_BUCKET);
+        } else if (spec.startsWith("s3:")) {
+            return new S3SegmentStore(spec.substring("s3:".length()));
+        } else if (spec.startsWith("file:")) {
+            return new LocalSegmentStore(spec.substring("file:".length()));
+        } else if (spec.startsWith("mem:")) {
+            return MemorySegmentStore.fromDirectory(spec.substring("mem:".length()));
+        } else if (spec.startsWith("svr:")) {
+            int colon = spec.lastIndexOf(':');
+            return new ServerSegmentStore(spec.substring("svr:".length(), colon),
+                    Integer.parseInt(spec.substring(colon + 1)));
+        } else {
+            throw new IllegalArgumentException("Unknown segment store: " + spec);
+        }
+    }
+}
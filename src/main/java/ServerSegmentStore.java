@@ -0,0 +1,161 @@
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Segment store served directly by VRServer over session connections, see the FETCH frame of
+ * {@link SessionChannel}. Every fetch borrows an idle connection or opens a new one, so that a
+ * speculative download can run next to the regular one.
+ */
+public class ServerSegmentStore extends SegmentStore {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private String host;
+    private int port;
+    private ConcurrentLinkedQueue<SessionChannel> idleSessions;
+
+    /**
+     * Fetch the segments from a VRServer.
+     *
+     * @param host host of VRServer.
+     * @param port port to VRServer.
+     */
+    public ServerSegmentStore(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.idleSessions = new ConcurrentLinkedQueue<>();
+    }
+
+    // send FETCH on an idle session, the returned session has the body of the SEGMENT frame to read
+    private SessionChannel fetch(String key, long start, long end) throws IOException {
+        SessionChannel session = idleSessions.poll();
+        if (session == null) {
+            session = SessionChannel.connect(host, port);
+        }
+        try {
+            session.sendFetch(key, start, end);
+            byte type = session.receive();
+            if (type == SessionChannel.MISSING) {
+                idleSessions.add(session);
+                throw new FileNotFoundException(key);
+            } else if (type != SessionChannel.SEGMENT) {
+                throw new IOException("Expect frame type " + SessionChannel.SEGMENT + " but got " + type);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    // a session can only be reused after the whole body is read
+    private void release(SessionChannel session) throws IOException {
+        if (session.getSegmentRemaining() == 0) {
+            idleSessions.add(session);
+        } else {
+            session.close();
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        SessionChannel session = fetch(key, 0, 0);
+        long size = session.getObjectSize();
+        release(session);
+        return size;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return open(key, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream open(String key, long start, long end) throws IOException {
+        return new SegmentInputStream(fetch(key, start, end));
+    }
+
+    // closing an unfinished segment closes the session instead of reading the rest
+    @Override
+    protected void abort(InputStream in) {
+        try {
+            ((SegmentInputStream) in).session.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void download(String key, String path, AtomicLong progress) throws IOException {
+        SessionChannel session = fetch(key, 0, Long.MAX_VALUE);
+        try (OutputStream out = new FileOutputStream(Paths.get(path).toFile())) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = session.readSegment(buffer, 0, buffer.length)) > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    session.close();
+                    throw new InterruptedIOException("Download of " + key + " is cancelled");
+                }
+                out.write(buffer, 0, read);
+                progress.addAndGet(read);
+            }
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        release(session);
+    }
+
+    /**
+     * Close all the idle sessions.
+     */
+    @Override
+    public void close() {
+        SessionChannel session;
+        while ((session = idleSessions.poll()) != null) {
+            try {
+                session.sendEnd();
+                session.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Body of a SEGMENT frame, the session goes back to the idle ones when the stream is closed.
+     */
+    private class SegmentInputStream extends InputStream {
+        private SessionChannel session;
+        private boolean closed;
+
+        SegmentInputStream(SessionChannel session) {
+            this.session = session;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return session.readSegment(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                release(session);
+            }
+        }
+    }
+}
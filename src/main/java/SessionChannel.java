@@ -0,0 +1,698 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+
+/**
+ * A long-lived connection between VRPlayer and VRServer. Instead of opening a new socket for every
+ * protocol step, both sides exchange length-prefixed, typed frames over one connection per player.
+ *
+ * Frame layout: | int payload length | byte frame type | payload |
+ * Payloads are encoded with FOVCodec into buffers that are reused for every frame.
+ *
+ * A PATH frame carries the byte sizes of the segment in every quality representation of the video,
+ * | code | path | int quality count | long size per quality | long full size per quality |, so that
+ * VRPlayer can choose the quality of the segment and of the full size fallback.
+ *
+ * After BAD, VRServer sends a PATHS frame before the GOP frame, every path of the missed segment with
+ * its byte sizes, | int path count | int quality count | (path, long size per quality) per path |,
+ * so that VRPlayer can fetch the rest of the segment from another path that covers the remaining
+ * frames instead of the full size segment. A segment may have hundreds of paths, so the buffers grow
+ * for a PATHS frame instead of leaving paths out.
+ *
+ * In direct-serve mode VRServer also sends the video segments: a FETCH frame asks for a byte range
+ * of a segment store key, it is answered by a SEGMENT frame whose payload is | long object size |
+ * bytes |, or by MISSING. VRServer writes the bytes with FileChannel.transferTo when the store is
+ * a local directory, so they never pass through the java heap.
+ */
+public class SessionChannel implements Closeable {
+    public static final byte FOV = 1;       // VRPlayer -> VRServer: user fov metadata, optionally its predicted envelope (STEP 1)
+    public static final byte PATH = 2;      // VRServer -> VRPlayer: path id or FULL, its rectangle and byte sizes (STEP 3)
+    public static final byte RESULT = 3;    // VRPlayer -> VRServer: GOOD or BAD (STEP 7)
+    public static final byte END = 4;       // either side: end of stream
+    public static final byte FETCH = 5;     // VRPlayer -> VRServer: long start, long end, key of the segment
+    public static final byte SEGMENT = 6;   // VRServer -> VRPlayer: long object size, bytes [start, end)
+    public static final byte MISSING = 7;   // VRServer -> VRPlayer: no such key
+    public static final byte HELLO = 8;     // VRPlayer -> VRServer: start a stream (STEP 0)
+    public static final byte MANIFEST = 9;  // VRServer -> VRPlayer: number of video segments (STEP 0)
+    public static final byte GOP = 10;      // VRServer -> VRPlayer: key frames of the full size segment after BAD
+    public static final byte PATHS = 11;    // VRServer -> VRPlayer: every path of the segment and its sizes after BAD
+
+    public static final int MAX_KEY_LENGTH = 1024;
+    private static final int HEADER_SIZE = 5;
+    private static final int FETCH_HEADER_SIZE = 16;
+    private static final int OBJECT_SIZE_SIZE = 8;
+    private static final int PATH_HEADER_SIZE = FOVCodec.CODE_SIZE + FOVCodec.FOV_METADATA_SIZE + 4;
+    private static final int QUALITY_SIZE = 16;
+    private static final int GOP_HEADER_SIZE = 20;
+    private static final int KEY_FRAME_SIZE = 12;
+    private static final int PATHS_HEADER_SIZE = 8;
+    private static final int NO_GOP_INDEX = -1;
+    private static final int MAX_PAYLOAD_SIZE = FETCH_HEADER_SIZE + MAX_KEY_LENGTH;
+    private static final int MAX_PATHS_PAYLOAD_SIZE = 1 << 24;
+
+    private SocketChannel channel;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+
+    // payload of the last received frame
+    private FOVMetadata fovMetadata;
+    private FOVMetadata envelope;
+    private int code;
+    private long[] pathSizes;
+    private long[] fullSizes;
+    private Vector<FOVMetadata> paths;
+    private long[][] pathsSizes;
+    private int segmentAmount;
+    private GOPIndex gopIndex;
+    private String key;
+    private long start;
+    private long end;
+    private long objectSize;
+    private long segmentRemaining;  // bytes of the last SEGMENT frame that are not read yet
+
+    /**
+     * Wrap an already connected socket channel.
+     *
+     * @param channel connected channel of the session.
+     * @throws IOException when the streams of the socket cannot be opened.
+     */
+    public SessionChannel(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.socket = channel.socket();
+        this.socket.setTcpNoDelay(true);
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+        this.sendBuffer = ByteBuffer.allocate(HEADER_SIZE + MAX_PAYLOAD_SIZE);
+        this.receiveBuffer = ByteBuffer.allocate(HEADER_SIZE + MAX_PAYLOAD_SIZE);
+    }
+
+    /**
+     * Connect to VRServer and open a session.
+     *
+     * @param host host of VRServer.
+     * @param port port to VRServer.
+     * @return the opened session.
+     * @throws IOException when the connection fails.
+     */
+    public static SessionChannel connect(String host, int port) throws IOException {
+        return new SessionChannel(SocketChannel.open(new InetSocketAddress(host, port)));
+    }
+
+    /**
+     * Wait for a VRPlayer to open a session.
+     *
+     * @param ss an already initiated server socket channel.
+     * @return the accepted session.
+     * @throws IOException when the accept fails.
+     */
+    public static SessionChannel accept(ServerSocketChannel ss) throws IOException {
+        return new SessionChannel(ss.accept());
+    }
+
+    /**
+     * Send the user fov metadata.
+     *
+     * @param metadata user fov metadata.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendFOV(FOVMetadata metadata) throws IOException {
+        sendFOV(metadata, null);
+    }
+
+    /**
+     * Send the user fov metadata of the key frame together with the envelope of the viewports predicted
+     * for the whole segment.
+     *
+     * @param metadata user fov metadata of the key frame.
+     * @param envelope rectangle that contains the predicted viewports, null if there is no prediction.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendFOV(FOVMetadata metadata, FOVMetadata envelope) throws IOException {
+        writeHeader(envelope == null ? FOVCodec.FOV_METADATA_SIZE : 2 * FOVCodec.FOV_METADATA_SIZE, FOV);
+        FOVCodec.encode(metadata, sendBuffer);
+        if (envelope != null) {
+            FOVCodec.encode(envelope, sendBuffer);
+        }
+        flush();
+    }
+
+    /**
+     * Send the path decision, either a path id or {@link FOVProtocol#FULL}, with what VRPlayer needs
+     * to check the coverage and download the segment, so it does not need the manifest.
+     *
+     * @param pathMsg path decision.
+     * @param path    rectangle of the path, the whole frame for FULL.
+     * @param size    byte size of the video segment of the path, -1 if unknown.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendPath(int pathMsg, FOVMetadata path, long size) throws IOException {
+        sendPath(pathMsg, path, new long[]{size}, new long[]{-1});
+    }
+
+    /**
+     * Send the path decision with the byte sizes of the segment in every quality representation.
+     *
+     * @param pathMsg   path decision.
+     * @param path      rectangle of the path, the whole frame for FULL.
+     * @param sizes     byte size of the video segment of the path per quality, -1 if unknown.
+     * @param fullSizes byte size of the full size segment per quality, -1 if unknown.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendPath(int pathMsg, FOVMetadata path, long[] sizes, long[] fullSizes) throws IOException {
+        if (sizes.length == 0 || sizes.length != fullSizes.length
+                || PATH_HEADER_SIZE + QUALITY_SIZE * sizes.length > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Wrong number of qualities: " + sizes.length);
+        }
+        writeHeader(PATH_HEADER_SIZE + QUALITY_SIZE * sizes.length, PATH);
+        FOVCodec.encodeCode(pathMsg, sendBuffer);
+        FOVCodec.encode(path, sendBuffer);
+        sendBuffer.putInt(sizes.length);
+        for (long size : sizes) {
+            sendBuffer.putLong(size);
+        }
+        for (long size : fullSizes) {
+            sendBuffer.putLong(size);
+        }
+        flush();
+    }
+
+    /**
+     * Send every path of a segment with the byte sizes of its video segment in every quality, so that
+     * VRPlayer can choose another path after BAD. The paths are sent in order of their path id.
+     *
+     * @param paths rectangles of the paths of the segment.
+     * @param sizes byte size of the video segment of every path per quality, -1 if unknown.
+     * @throws IOException when socket went wrong or the paths do not fit into a frame.
+     */
+    public void sendPaths(Vector<FOVMetadata> paths, long[][] sizes) throws IOException {
+        int count = paths.size();
+        int qualities = sizes.length == 0 ? 0 : sizes[0].length;
+        long length = PATHS_HEADER_SIZE + (long) (FOVCodec.FOV_METADATA_SIZE + 8 * qualities) * count;
+        if (length > MAX_PATHS_PAYLOAD_SIZE) {
+            throw new IOException("Too many paths: " + count);
+        }
+        if (HEADER_SIZE + length > sendBuffer.capacity()) {
+            sendBuffer = ByteBuffer.allocate(HEADER_SIZE + (int) length);
+        }
+        writeHeader((int) length, PATHS);
+        sendBuffer.putInt(count);
+        sendBuffer.putInt(qualities);
+        for (int i = 0; i < count; i++) {
+            FOVCodec.encode(paths.get(i), sendBuffer);
+            for (long size : sizes[i]) {
+                sendBuffer.putLong(size);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Ask VRServer to start a stream.
+     *
+     * @throws IOException when socket went wrong.
+     */
+    public void sendHello() throws IOException {
+        writeHeader(0, HELLO);
+        flush();
+    }
+
+    /**
+     * Answer HELLO with the number of video segments.
+     *
+     * @param segmentAmount the total of video segments.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendManifest(int segmentAmount) throws IOException {
+        writeHeader(4, MANIFEST);
+        sendBuffer.putInt(segmentAmount);
+        flush();
+    }
+
+    /**
+     * Send the key frames of a full size segment, so that VRPlayer can fetch it from the GOP of the
+     * first missed frame.
+     *
+     * @param gopIndex key frames of the segment, null if unknown.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendGOPIndex(GOPIndex gopIndex) throws IOException {
+        // an index that does not fit into one frame is not sent
+        if (gopIndex == null || GOP_HEADER_SIZE + KEY_FRAME_SIZE * gopIndex.getKeyFrames().length > MAX_PAYLOAD_SIZE) {
+            writeHeader(4, GOP);
+            sendBuffer.putInt(NO_GOP_INDEX);
+            flush();
+            return;
+        }
+        int count = gopIndex.getKeyFrames().length;
+        writeHeader(GOP_HEADER_SIZE + KEY_FRAME_SIZE * count, GOP);
+        sendBuffer.putInt(count);
+        sendBuffer.putLong(gopIndex.getHeaderSize());
+        sendBuffer.putLong(gopIndex.getFileSize());
+        for (int i = 0; i < count; i++) {
+            sendBuffer.putInt(gopIndex.getKeyFrames()[i]);
+            sendBuffer.putLong(gopIndex.getOffsets()[i]);
+        }
+        flush();
+    }
+
+    /**
+     * Send {@link FOVProtocol#GOOD} or {@link FOVProtocol#BAD}.
+     *
+     * @param result result of the fov coverage check.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendResult(int result) throws IOException {
+        sendCode(RESULT, result);
+    }
+
+    /**
+     * Notify the other side that no more frames will be sent.
+     *
+     * @throws IOException when socket went wrong.
+     */
+    public void sendEnd() throws IOException {
+        writeHeader(0, END);
+        flush();
+    }
+
+    /**
+     * Ask for bytes [start, end) of a segment store key, end is clipped to the size of the object.
+     *
+     * @param key   key of the object.
+     * @param start first byte of the range.
+     * @param end   end of the range, exclusive.
+     * @throws IOException when socket went wrong.
+     */
+    public void sendFetch(String key, long start, long end) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IOException("Key is too long: " + key);
+        }
+        writeHeader(FETCH_HEADER_SIZE + keyBytes.length, FETCH);
+        sendBuffer.putLong(start);
+        sendBuffer.putLong(end);
+        sendBuffer.put(keyBytes);
+        flush();
+    }
+
+    /**
+     * Answer a FETCH frame with the bytes of the object, or with MISSING if the store does not have it.
+     *
+     * @param store store of the video segments.
+     * @param key   key of the object.
+     * @param start first byte of the range.
+     * @param end   end of the range, exclusive.
+     * @return number of sent bytes of the object.
+     * @throws IOException when socket went wrong or the object cannot be read.
+     */
+    public long sendSegment(SegmentStore store, String key, long start, long end) throws IOException {
+        long size;
+        try {
+            size = store.size(key);
+        } catch (FileNotFoundException e) {
+            sendMissing();
+            return 0;
+        }
+        long to = Math.min(end, size);
+        long from = Math.min(start, to);
+        long length = to - from;
+        if (OBJECT_SIZE_SIZE + length > Integer.MAX_VALUE) {
+            throw new IOException("Range is too large: " + length);
+        }
+        writeHeader((int) (OBJECT_SIZE_SIZE + length), SEGMENT);
+        sendBuffer.putLong(size);
+        flush();
+        store.transferTo(key, from, to, channel);
+        return length;
+    }
+
+    /**
+     * Answer a FETCH frame of a key that cannot be served.
+     *
+     * @throws IOException when socket went wrong.
+     */
+    public void sendMissing() throws IOException {
+        writeHeader(0, MISSING);
+        flush();
+    }
+
+    private void sendCode(byte type, int code) throws IOException {
+        writeHeader(FOVCodec.CODE_SIZE, type);
+        FOVCodec.encodeCode(code, sendBuffer);
+        flush();
+    }
+
+    private void writeHeader(int length, byte type) {
+        sendBuffer.clear();
+        sendBuffer.putInt(length);
+        sendBuffer.put(type);
+    }
+
+    // the whole frame is written with a single call so it goes out in one segment
+    private void flush() throws IOException {
+        out.write(sendBuffer.array(), 0, sendBuffer.position());
+        out.flush();
+    }
+
+    /**
+     * Block until the next frame arrives. The payload can then be read with
+     * {@link #getFOVMetadata()} or {@link #getCode()} depending on the frame type.
+     *
+     * @return type of the received frame.
+     * @throws EOFException when the other side closed the connection.
+     * @throws IOException  when socket went wrong or the frame is malformed.
+     */
+    public byte receive() throws IOException {
+        if (segmentRemaining > 0) {
+            throw new IOException("The body of the last segment is not read yet");
+        }
+        readFully(HEADER_SIZE);
+        int length = receiveBuffer.getInt();
+        byte type = receiveBuffer.get();
+        switch (type) {
+            case FOV:
+                if (length != 2 * FOVCodec.FOV_METADATA_SIZE) {
+                    expectLength(type, length, FOVCodec.FOV_METADATA_SIZE);
+                }
+                readFully(length);
+                fovMetadata = FOVCodec.decodeFOVMetadata(receiveBuffer);
+                envelope = length == FOVCodec.FOV_METADATA_SIZE ? null : FOVCodec.decodeFOVMetadata(receiveBuffer);
+                break;
+            case PATH:
+                if (length < PATH_HEADER_SIZE + QUALITY_SIZE || length > MAX_PAYLOAD_SIZE) {
+                    throw new IOException("Wrong payload length " + length + " for frame type " + type);
+                }
+                readFully(length);
+                try {
+                    code = FOVCodec.decodeCode(receiveBuffer);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage());
+                }
+                fovMetadata = FOVCodec.decodeFOVMetadata(receiveBuffer);
+                int qualities = receiveBuffer.getInt();
+                expectLength(type, length, PATH_HEADER_SIZE + QUALITY_SIZE * qualities);
+                pathSizes = new long[qualities];
+                fullSizes = new long[qualities];
+                for (int i = 0; i < qualities; i++) {
+                    pathSizes[i] = receiveBuffer.getLong();
+                }
+                for (int i = 0; i < qualities; i++) {
+                    fullSizes[i] = receiveBuffer.getLong();
+                }
+                break;
+            case MANIFEST:
+                expectLength(type, length, 4);
+                readFully(length);
+                segmentAmount = receiveBuffer.getInt();
+                break;
+            case GOP:
+                readGOPIndex(length);
+                break;
+            case PATHS:
+                readPaths(length);
+                break;
+            case RESULT:
+                expectLength(type, length, FOVCodec.CODE_SIZE);
+                readFully(length);
+                try {
+                    code = FOVCodec.decodeCode(receiveBuffer);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage());
+                }
+                break;
+            case END:
+            case MISSING:
+            case HELLO:
+                expectLength(type, length, 0);
+                break;
+            case FETCH:
+                if (length < FETCH_HEADER_SIZE || length > MAX_PAYLOAD_SIZE) {
+                    throw new IOException("Wrong payload length " + length + " for frame type " + type);
+                }
+                readFully(length);
+                start = receiveBuffer.getLong();
+                end = receiveBuffer.getLong();
+                key = new String(receiveBuffer.array(), FETCH_HEADER_SIZE, length - FETCH_HEADER_SIZE,
+                        StandardCharsets.UTF_8);
+                break;
+            case SEGMENT:
+                if (length < OBJECT_SIZE_SIZE) {
+                    throw new IOException("Wrong payload length " + length + " for frame type " + type);
+                }
+                readFully(OBJECT_SIZE_SIZE);
+                objectSize = receiveBuffer.getLong();
+                segmentRemaining = length - OBJECT_SIZE_SIZE;
+                break;
+            default:
+                throw new IOException("Unknown frame type: " + type);
+        }
+        return type;
+    }
+
+    // read exactly length bytes into the receive buffer and flip it for decoding
+    private void readFully(int length) throws IOException {
+        if (length > receiveBuffer.capacity()) {
+            receiveBuffer = ByteBuffer.allocate(length);
+        }
+        byte[] array = receiveBuffer.array();
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(array, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        receiveBuffer.clear();
+        receiveBuffer.limit(length);
+    }
+
+    private void readGOPIndex(int length) throws IOException {
+        if (length < 4 || length > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Wrong payload length " + length + " for frame type " + GOP);
+        }
+        readFully(length);
+        int count = receiveBuffer.getInt();
+        if (count == NO_GOP_INDEX) {
+            expectLength(GOP, length, 4);
+            gopIndex = null;
+            return;
+        }
+        expectLength(GOP, length, GOP_HEADER_SIZE + KEY_FRAME_SIZE * count);
+        long headerSize = receiveBuffer.getLong();
+        long fileSize = receiveBuffer.getLong();
+        int[] keyFrames = new int[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            keyFrames[i] = receiveBuffer.getInt();
+            offsets[i] = receiveBuffer.getLong();
+        }
+        gopIndex = new GOPIndex(headerSize, fileSize, keyFrames, offsets);
+    }
+
+    private void readPaths(int length) throws IOException {
+        if (length < PATHS_HEADER_SIZE || length > MAX_PATHS_PAYLOAD_SIZE) {
+            throw new IOException("Wrong payload length " + length + " for frame type " + PATHS);
+        }
+        readFully(length);
+        int count = receiveBuffer.getInt();
+        int qualities = receiveBuffer.getInt();
+        if (count < 0 || qualities < 0) {
+            throw new IOException("Wrong number of paths " + count + " or qualities " + qualities);
+        }
+        expectLength(PATHS, length, PATHS_HEADER_SIZE + (FOVCodec.FOV_METADATA_SIZE + 8L * qualities) * count);
+        paths = new Vector<>(count);
+        pathsSizes = new long[count][qualities];
+        for (int i = 0; i < count; i++) {
+            paths.add(FOVCodec.decodeFOVMetadata(receiveBuffer));
+            for (int quality = 0; quality < qualities; quality++) {
+                pathsSizes[i][quality] = receiveBuffer.getLong();
+            }
+        }
+    }
+
+    /**
+     * Read the body of the last received SEGMENT frame, it must be read to the end before the next
+     * frame can be received.
+     *
+     * @param b   buffer to read into.
+     * @param off offset in the buffer.
+     * @param len maximum number of bytes to read.
+     * @return number of read bytes, or -1 at the end of the body.
+     * @throws IOException when socket went wrong.
+     */
+    public int readSegment(byte[] b, int off, int len) throws IOException {
+        if (segmentRemaining == 0) {
+            return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, segmentRemaining));
+        if (read < 0) {
+            throw new EOFException();
+        }
+        segmentRemaining -= read;
+        return read;
+    }
+
+    /**
+     * Receive the next frame and check that it has the expected type.
+     *
+     * @param type expected frame type.
+     * @throws IOException when the received frame has another type.
+     */
+    public void receive(byte type) throws IOException {
+        byte received = receive();
+        if (received != type) {
+            throw new IOException("Expect frame type " + type + " but got " + received);
+        }
+    }
+
+    private static void expectLength(byte type, int length, long expected) throws IOException {
+        if (length != expected) {
+            throw new IOException("Wrong payload length " + length + " for frame type " + type);
+        }
+    }
+
+    /**
+     * Get the predicted envelope of the last received FOV frame.
+     *
+     * @return envelope of the predicted viewports, null if the FOV frame has none.
+     */
+    public FOVMetadata getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Get the fov metadata of the last received FOV frame, or the path rectangle of the last received
+     * PATH frame.
+     *
+     * @return user fov metadata or path rectangle.
+     */
+    public FOVMetadata getFOVMetadata() {
+        return fovMetadata;
+    }
+
+    /**
+     * Get the code of the last received PATH or RESULT frame.
+     *
+     * @return path decision or fov coverage result.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the byte size of the video segment of the last received PATH frame.
+     *
+     * @return size in bytes, -1 if unknown.
+     */
+    public long getPathSize() {
+        return pathSizes[0];
+    }
+
+    /**
+     * Get the byte sizes of the video segment of the last received PATH frame in every quality.
+     *
+     * @return size in bytes per quality, -1 if unknown.
+     */
+    public long[] getPathSizes() {
+        return pathSizes;
+    }
+
+    /**
+     * Get the byte sizes of the full size segment of the last received PATH frame in every quality.
+     *
+     * @return size in bytes per quality, -1 if unknown.
+     */
+    public long[] getFullSizes() {
+        return fullSizes;
+    }
+
+    /**
+     * Get the paths of the last received PATHS frame.
+     *
+     * @return rectangles of the paths, indexed by path id.
+     */
+    public Vector<FOVMetadata> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Get the byte sizes of the video segments of the paths of the last received PATHS frame.
+     *
+     * @return size in bytes per path and quality, -1 if unknown.
+     */
+    public long[][] getPathsSizes() {
+        return pathsSizes;
+    }
+
+    /**
+     * Get the number of video segments of the last received MANIFEST frame.
+     *
+     * @return the total of video segments.
+     */
+    public int getSegmentAmount() {
+        return segmentAmount;
+    }
+
+    /**
+     * Get the key frames of the last received GOP frame.
+     *
+     * @return key frames of the full size segment, null if unknown.
+     */
+    public GOPIndex getGOPIndex() {
+        return gopIndex;
+    }
+
+    /**
+     * Get the key of the last received FETCH frame.
+     *
+     * @return key of the requested object.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the size of the whole object of the last received SEGMENT frame.
+     *
+     * @return size in bytes.
+     */
+    public long getObjectSize() {
+        return objectSize;
+    }
+
+    /**
+     * Get the number of bytes in the body of the last SEGMENT frame that are not read yet.
+     *
+     * @return remaining bytes.
+     */
+    public long getSegmentRemaining() {
+        return segmentRemaining;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionChannel{" + socket.getRemoteSocketAddress() + "}";
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
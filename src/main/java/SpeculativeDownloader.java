@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download full size video segments in the background before VRPlayer knows whether the fov
+ * segment misses. A download is either used when the fov segment turns out BAD, or cancelled when
+ * it turns out GOOD, and the bytes of cancelled downloads are accounted as wasted.
+ */
+public class SpeculativeDownloader {
+    private ExecutorService executor;
+    private AtomicInteger started = new AtomicInteger();
+    private AtomicInteger used = new AtomicInteger();
+    private AtomicInteger cancelled = new AtomicInteger();
+    private AtomicLong usedBytes = new AtomicLong();
+    private AtomicLong wastedBytes = new AtomicLong();
+
+    /**
+     * Download a file and add every written byte to the progress counter. The download should stop
+     * with an exception when the thread is interrupted.
+     */
+    public interface Download {
+        void run(AtomicLong progress) throws IOException;
+    }
+
+    /**
+     * A started speculative download.
+     */
+    public class Handle {
+        private Future<?> future;
+        private AtomicLong progress = new AtomicLong();
+        private String path;
+        private volatile boolean isCancelled;
+        private AtomicBoolean isWasteAccounted = new AtomicBoolean();
+
+        private Handle(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Wait for the download because the fov segment missed.
+         *
+         * @throws IOException when the download failed.
+         */
+        public void await() throws IOException, InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            used.incrementAndGet();
+            usedBytes.addAndGet(progress.get());
+        }
+
+        /**
+         * Stop the download because the fov segment covered the whole segment. The bytes that are
+         * downloaded until the download stops are counted as wasted.
+         */
+        public void cancel() {
+            isCancelled = true;
+            cancelled.incrementAndGet();
+            if (!future.cancel(true)) {
+                // already done, the whole file is wasted
+                accountWaste();
+            }
+        }
+
+        // called by whichever of cancel() and the download finishes last
+        private void accountWaste() {
+            if (isWasteAccounted.compareAndSet(false, true)) {
+                wastedBytes.addAndGet(progress.get());
+                new File(path).delete();
+            }
+        }
+    }
+
+    public SpeculativeDownloader() {
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "speculative-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start a download in the background.
+     *
+     * @param path     the path of the downloaded file, deleted when the download is cancelled.
+     * @param download the download.
+     * @return handle to use or cancel the download.
+     */
+    public Handle start(String path, Download download) {
+        Handle handle = new Handle(path);
+        started.incrementAndGet();
+        handle.future = executor.submit(() -> {
+            try {
+                download.run(handle.progress);
+            } finally {
+                if (handle.isCancelled) {
+                    handle.accountWaste();
+                }
+            }
+            return null;
+        });
+        return handle;
+    }
+
+    /**
+     * Wait for the cancelled downloads to stop so that the wasted bytes are final.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpeculativeDownloader{" +
+                "started=" + started +
+                ", used=" + used +
+                ", cancelled=" + cancelled +
+                ", usedBytes=" + usedBytes +
+                ", wastedBytes=" + wastedBytes +
+                '}';
+    }
+}
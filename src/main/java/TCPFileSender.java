@@ -2,9 +2,11 @@ import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 
 public class TCPFileSender extends TCPRequest {
-    private static final int BUF_SIZE = 4096;
+    private static final int BUF_SIZE = 64 * 1024;
     private String filename;
 
     /**
@@ -20,15 +22,27 @@ public class TCPFileSender extends TCPRequest {
 
     @Override
     void request() throws IOException {
-        DataOutputStream dos = new DataOutputStream(getClientSock().getOutputStream());
-        FileInputStream fis = new FileInputStream(filename);
-        byte[] buffer = new byte[BUF_SIZE];
+        SocketChannel socketChannel = getClientSock().getChannel();
+        try (FileInputStream fis = new FileInputStream(filename)) {
+            // sockets accepted by a ServerSocketChannel can send the file without copying it to the heap
+            if (socketChannel != null) {
+                FileChannel fileChannel = fis.getChannel();
+                long position = 0;
+                long size = fileChannel.size();
+                while (position < size) {
+                    position += fileChannel.transferTo(position, size - position, socketChannel);
+                }
+                socketChannel.close();
+                return;
+            }
 
-        while (fis.read(buffer) > 0) {
-            dos.write(buffer);
+            DataOutputStream dos = new DataOutputStream(getClientSock().getOutputStream());
+            byte[] buffer = new byte[BUF_SIZE];
+            int read;
+            while ((read = fis.read(buffer)) > 0) {
+                dos.write(buffer, 0, read);
+            }
+            dos.close();
         }
-
-        fis.close();
-        dos.close();
     }
 }
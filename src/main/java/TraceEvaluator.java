@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Replay user fov traces against the manifest of a video offline, without VRServer and VRPlayer, to
+ * evaluate a threshold or a set of predicted paths over many traces.
+ *
+ * Every segment is decided the way SVRSession does it, the path with the least expected bytes among
+ * the paths matched with the key frame of the segment, with the envelope predicted by the viewport
+ * predictor of VRPlayer and a miss model learned from the replayed results, and the frames are
+ * checked the way VRPlayer does it, the path has to cover all the frames of the segment or the rest
+ * is fetched from the smallest other path that covers the remaining frames, else from the full size
+ * segment, from the GOP of the first missed frame with -Dsvr.partial=true.
+ * Every user of every trace file is replayed as one trace, all the traces are replayed in parallel
+ * and every trace learns its own miss model, like a VRServer serving only that user.
+ */
+public class TraceEvaluator {
+    private static final int FRAME_PER_VIDEO_SEGMENT = 15;
+    private static final String MANIFEST_PATH = "evaluator-full";     // .bin or .txt is appended
+
+    private SegmentManifest manifest;
+    private SegmentStore store;
+    private String name;
+    private double threshold;
+    private String predictorSpec;
+    private boolean partialFetch = Boolean.getBoolean(GOPIndex.PROPERTY);
+    private Map<String, Long> segmentSizes = new ConcurrentHashMap<>();
+
+    /**
+     * Result of the replay of one trace.
+     */
+    public static class Result {
+        private final String trace;
+        private int segments;
+        private int fovHits;            // fov path covers all the frames of the segment
+        private int fovMisses;          // fov path misses a frame, the rest comes from the full size segment
+        private int fullFallbacks;      // no path matches the key frame
+        private int pathFallbacks;      // missed segments recovered from another path instead of the full size segment
+        private long pathFallbackSavedBytes;    // bytes of the full size fallbacks minus the bytes of those paths
+        private long framesBeforeMiss;  // frames rendered from the fov path of the missed segments
+        private long bytes;
+
+        Result(String trace) {
+            this.trace = trace;
+        }
+
+        void add(Result other) {
+            segments += other.segments;
+            fovHits += other.fovHits;
+            fovMisses += other.fovMisses;
+            fullFallbacks += other.fullFallbacks;
+            pathFallbacks += other.pathFallbacks;
+            pathFallbackSavedBytes += other.pathFallbackSavedBytes;
+            framesBeforeMiss += other.framesBeforeMiss;
+            bytes += other.bytes;
+        }
+
+        public double getHitRate() {
+            return segments == 0 ? 0 : (double) fovHits / segments;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "[TRACE " + trace + "] segments: " + segments
+                    + ", hit rate: " + String.format("%.4f", getHitRate())
+                    + ", fov hits: " + fovHits
+                    + ", fov misses: " + fovMisses
+                    + ", frames before miss: " + String.format("%.2f",
+                    fovMisses == 0 ? 0.0 : (double) framesBeforeMiss / fovMisses)
+                    + ", path fallbacks: " + pathFallbacks
+                    + ", path fallback saved bytes: " + pathFallbackSavedBytes
+                    + ", FULL fallbacks: " + fullFallbacks
+                    + ", bytes: " + bytes;
+        }
+    }
+
+    /**
+     * Setup an evaluator for a video.
+     *
+     * @param name          name of the video.
+     * @param store         store of the manifest, the sizes of the video segments are read from it too.
+     * @param threshold     minimum overlap rate of a path with a user fov.
+     * @param predictorSpec viewport predictor of the players, see {@link ViewportPredictor#fromSpec(String)}.
+     * @throws IOException when the manifest cannot be read.
+     */
+    public TraceEvaluator(String name, SegmentStore store, double threshold, String predictorSpec) throws IOException {
+        this.name = name;
+        this.store = store;
+        this.threshold = threshold;
+        this.predictorSpec = predictorSpec;
+        this.manifest = SegmentManifest.fetch(store, name, MANIFEST_PATH);
+    }
+
+    /**
+     * Replay the traces in parallel.
+     *
+     * @param traceFiles paths of the trace files.
+     * @return result of every user of every trace file, in the order of the files and the users.
+     */
+    public List<Result> evaluate(List<String> traceFiles) {
+        List<String> labels = new ArrayList<>();
+        List<FOVTraces> traces = new ArrayList<>();
+        for (String traceFile : traceFiles) {
+            FOVTraces all = new FOVTraces(traceFile, true);
+            for (int user : all.getUsers()) {
+                labels.add(traceFile + "#" + user);
+                traces.add(all.forUser(user));
+            }
+        }
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < traces.size(); i++) {
+            indexes.add(i);
+        }
+        return indexes.parallelStream()
+                .map(i -> replay(labels.get(i), traces.get(i)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Replay one trace, segment by segment until the end of the video or of the trace.
+     *
+     * @param label   name of the trace in the result.
+     * @param fovTraces user fov of every frame.
+     * @return result of the trace.
+     */
+    public Result replay(String label, FOVTraces fovTraces) {
+        Result result = new Result(label);
+        ViewportPredictor predictor = ViewportPredictor.fromSpec(predictorSpec);
+        MissModel missModel = new MissModel(new Random(label.hashCode()));
+        int observedFrames = 0;
+        for (int segId = 1; segId <= manifest.getVideoSegmentAmount(); segId++) {
+            int keyFrameID = (segId - 1) * FRAME_PER_VIDEO_SEGMENT;
+            if (keyFrameID >= fovTraces.size()) {
+                break;
+            }
+            result.segments++;
+            VideoSegmentManifest.VideoSegmentMetaData segment = manifest.getSegment(segId);
+            FOVMetadata envelope = null;
+            if (predictor != null) {
+                for (; observedFrames <= keyFrameID; observedFrames++) {
+                    predictor.observe(fovTraces.get(observedFrames));
+                }
+                envelope = ViewportPredictor.envelope(predictor, fovTraces.get(keyFrameID), FRAME_PER_VIDEO_SEGMENT);
+            }
+            int sizeMsg = segment.choosePath(fovTraces.get(keyFrameID), envelope, threshold, missModel);
+            long fullSize = segment.getFullSize();
+            if (fullSize < 0) {
+                fullSize = getSegmentSize(Utilities.getServerFullSizeSegmentName(name + "-full", "output", segId));
+            }
+            if (FOVProtocol.isFull(sizeMsg)) {
+                result.fullFallbacks++;
+                result.bytes += fullSize;
+                continue;
+            }
+
+            FOVMetadata path = segment.getPathVec().get(sizeMsg);
+            result.bytes += getPathSize(segment, segId, sizeMsg);
+            int covered = fovTraces.coveredFrames(path, keyFrameID, FRAME_PER_VIDEO_SEGMENT, threshold);
+            missModel.record(segment.getCover(sizeMsg, fovTraces.get(keyFrameID), envelope),
+                    covered < FRAME_PER_VIDEO_SEGMENT);
+            if (covered == FRAME_PER_VIDEO_SEGMENT) {
+                result.fovHits++;
+                continue;
+            }
+            result.fovMisses++;
+            result.framesBeforeMiss += covered;
+
+            // same as VRPlayer with -Dsvr.partial=true, only the header and the bytes from the GOP of the
+            // missed frame are fetched
+            GOPIndex gopIndex = segment.getGopIndex();
+            if (partialFetch && gopIndex != null && covered > 0) {
+                fullSize = gopIndex.getHeaderSize() + gopIndex.getFileSize() - gopIndex.getGOPOffset(covered);
+            }
+
+            // same as VRPlayer, the smallest other path that covers the remaining frames if it is cheaper
+            boolean[] covers = segment.getPathBatch().coverAll(fovTraces, keyFrameID + covered,
+                    FRAME_PER_VIDEO_SEGMENT - covered, threshold);
+            long recoverySize = fullSize;
+            for (int pathId = 0; pathId < covers.length; pathId++) {
+                // a path without size is not known to exist
+                long alternativeSize = covers[pathId] ? getPathSize(segment, segId, pathId) : 0;
+                if (alternativeSize > 0 && alternativeSize < recoverySize) {
+                    recoverySize = alternativeSize;
+                }
+            }
+            if (recoverySize < fullSize) {
+                result.pathFallbacks++;
+                result.pathFallbackSavedBytes += fullSize - recoverySize;
+            }
+            result.bytes += recoverySize;
+        }
+        return result;
+    }
+
+    // size of the fov segment of a path, from the manifest or else from the store
+    private long getPathSize(VideoSegmentManifest.VideoSegmentMetaData segment, int segId, int pathId) {
+        long pathSize = segment.getPathSize(pathId);
+        if (pathSize < 0) {
+            pathSize = getSegmentSize(Utilities.getServerFOVSegmentName(name + "-fov", segId, pathId));
+        }
+        return pathSize;
+    }
+
+    // look up the store once per key, a segment without size counts as 0 bytes
+    private long getSegmentSize(String key) {
+        return segmentSizes.computeIfAbsent(key, k -> {
+            try {
+                return store.size(k);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("No size of " + k + ": " + e.getMessage());
+                return 0L;
+            }
+        });
+    }
+
+    /**
+     * Example: java TraceEvaluator rhino file:storage 0.96 linear rhino-trace.txt user-fov-trace.txt
+     * See {@link SegmentStore#fromSpec(String)} for the segment store.
+     *
+     * @param args command line args.
+     */
+    public static void main(String[] args) {
+        try (SegmentStore store = SegmentStore.fromSpec(args[1])) {
+            TraceEvaluator evaluator = new TraceEvaluator(args[0], store, Double.parseDouble(args[2]), args[3]);
+            List<String> traceFiles = new ArrayList<>();
+            for (int i = 4; i < args.length; i++) {
+                traceFiles.add(args[i]);
+            }
+
+            long start = System.nanoTime();
+            List<Result> results = evaluator.evaluate(traceFiles);
+            long elapsed = System.nanoTime() - start;
+
+            Result total = new Result("ALL");
+            for (Result result : results) {
+                System.out.println(result);
+                total.add(result);
+            }
+            System.out.println(total);
+            System.out.println("[EVALUATOR] " + results.size() + " traces in " + elapsed / 1000000 + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -53,6 +53,18 @@ public class Utilities {
         return dir + "/" + Integer.toString(id) + "/" + Integer.toString(pathid) + ".mp4";
     }
 
+    /**
+     * Return the name of a quality representation of a video, the segments of a representation are
+     * stored like the ones of the video, in name-q{quality}-full and name-q{quality}-fov.
+     *
+     * @param name    name of the video.
+     * @param quality 0 for the original encoding, a larger number for a lower bitrate.
+     * @return name of the representation.
+     */
+    public static String getRepresentationName(String name, int quality) {
+        return quality == 0 ? name : name + "-q" + Integer.toString(quality);
+    }
+
     public static String getClientFullSegmentName(String dir, int id) {
         return dir + "/" + Integer.toString(id) + ".mp4";
     }
@@ -62,18 +74,20 @@ public class Utilities {
     }
 
     public enum Mode {
-        BASELINE, SVR, NONE;
+        BASELINE, SVR, SVR_SPECULATIVE, NONE;
     }
 
     /**
      * Convert from string to mode
      *
-     * @param str string could only be BASELINE or SVR.
+     * @param str string could only be BASELINE, SVR or SVR_SPECULATIVE.
      * @return mode.
      */
     public static Mode string2mode(String str) {
         if (str.equals("SVR")) {
             return Mode.SVR;
+        } else if (str.equals("SVR_SPECULATIVE")) {
+            return Mode.SVR_SPECULATIVE;
         } else if (str.equals("BASELINE")) {
             return Mode.BASELINE;
         } else {
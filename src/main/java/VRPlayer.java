@@ -1,17 +1,6 @@
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
-import com.google.gson.Gson;
-import sun.rmi.runtime.Log;
-
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class manage frame rendering, video segment downloading, and all bunch
@@ -19,21 +8,47 @@ import java.util.Vector;
  */
 public class VRPlayer {
     private static final int SEGMENT_START_NUM = 1;
-    private static final String MANIFEST_PATH = "client-full.txt";
-    private static final String bucketName = "vros-video-segments";
+    private static final String MANIFEST_PATH = "client-full";  // .bin or .txt is appended
     private static final int FRAME_PER_VIDEO_SEGMENT = 15;
+    private static final long SEGMENT_NANOS = 500000000L;     // 15 frames at 30 fps
+    private static final int DEFAULT_PREFETCH_DEPTH = 2;
+    private static final String DEFAULT_SEGMENT_STORE = "s3";
+    private static final String SEGMENT_CACHE_DIR = "cache";
+    private static final long DEFAULT_CACHE_MEMORY_MB = 64;
+    private static final long DEFAULT_CACHE_DISK_MB = 1024;
+    // in SVR_SPECULATIVE mode, a key frame overlap below THRESHOLD + SPECULATION_MARGIN predicts a miss
+    private static final double SPECULATION_MARGIN = 0.02;
 
     private String host;
     private int port;
     private String segmentPath;
     private int currSegId;      // indicate the top video segment id could be decoded
-    private String fullSegmentDir;
-    private String fovSegmentDir;
-    private VideoSegmentManifest manifest;
+    private String name;
+    private int segmentAmount;     // learned from the manifest in BASELINE mode, from VRServer otherwise
+    private SegmentManifest manifest;   // only in BASELINE mode
     private FOVTraces fovTraces;    // use currSegId to extract fov from fovTraces
-    private AmazonS3 s3;
+    private SegmentStore store;     // the segment cache in front of the store given to the constructor
+    private SessionChannel session;
+    private PrefetchBuffer prefetchBuffer;
+    private SpeculativeDownloader speculativeDownloader;    // null if not in SVR_SPECULATIVE mode
+    private ViewportPredictor predictor;    // null if only the key frame is sent
+    private QualitySelector abr;
+    private RenderDaemon renderer;  // null if every segment is rendered by a ./render process of its own
+    private int observedFrames;     // frames of fovTraces observed by the predictor
+    private boolean partialFetch = Boolean.getBoolean(GOPIndex.PROPERTY);
+    private long partialFetchSavedBytes;    // bytes of full size segments skipped by fetching from the missed GOP
+    private int pathFallbacks;              // misses recovered from another fov path instead of the full size segment
+    private long pathFallbackSavedBytes;    // bytes of the full size fallbacks minus the bytes of those fov paths
+    private ProtocolMetrics metrics;
     private Logger logger;
 
+    /**
+     * The network stage, it downloads the video segments and puts them into the prefetch buffer.
+     */
+    private interface NetworkHandler {
+        void run() throws IOException, InterruptedException;
+    }
+
     /**
      * Construct a VRPlayer object which manage GUI, video segment downloading, and video segment decoding
      *
@@ -41,79 +56,256 @@ public class VRPlayer {
      * @param port        Port of VRServer.
      * @param segmentPath Path to the storage of video segments in a temporary path like tmp/.
      * @param name        Name of the video.
+     * @param prefetchDepth Number of video segments that could be downloaded ahead of the rendered one.
+     * @param store       Storage of the manifest and video segments.
+     * @param cacheMemoryBudget Bytes of the segments cached in memory.
+     * @param cacheDiskBudget   Bytes of the segments cached in segmentPath/cache.
      */
-    public VRPlayer(String host, int port, String segmentPath, String name, Utilities.Mode mode, Logger logger) {
+    public VRPlayer(String host, int port, String segmentPath, String name, Utilities.Mode mode, int prefetchDepth,
+                    SegmentStore store, long cacheMemoryBudget, long cacheDiskBudget, Logger logger) {
         // init vars
         this.host = host;
         this.port = port;
         this.segmentPath = segmentPath;
         this.currSegId = SEGMENT_START_NUM;
-        this.fovTraces = new FOVTraces(name + "-trace.txt");
-        this.s3 = new AmazonS3Client();
-        this.s3.setRegion(Region.getRegion(Regions.US_EAST_1));
-        this.fullSegmentDir = name + "-full";
-        this.fovSegmentDir = name + "-fov";
-        String manifestFileName = name + "-manifest.txt";
+        this.fovTraces = new FOVTraces(name + "-trace.txt", true);
+        this.store = store;
+        this.name = name;
+        this.prefetchBuffer = new PrefetchBuffer(prefetchDepth);
+        this.abr = new QualitySelector(BandwidthEstimator.fromSpec(System.getProperty(BandwidthEstimator.PROPERTY,
+                BandwidthEstimator.DEFAULT_SPEC)), SEGMENT_NANOS);
         this.logger = logger;
+        this.metrics = ProtocolMetrics.export("player");
 
         File segmentDir = new File(segmentPath);
         if (!segmentDir.exists()) {
             segmentDir.mkdirs();
         }
 
-        downloadFileFromS3ToFileSystem(manifestFileName, MANIFEST_PATH);
-        parseManifest();
+        try {
+            this.store = new SegmentCache(store, segmentPath + "/" + SEGMENT_CACHE_DIR, cacheMemoryBudget, cacheDiskBudget);
+        } catch (IOException e) {
+            // play without the cache
+            e.printStackTrace();
+        }
+
+        if (!"process".equals(System.getProperty(RenderDaemon.PROPERTY))) {
+            try {
+                renderer = RenderDaemon.start();
+            } catch (IOException e) {
+                System.err.println("[RENDER] Render every segment with its own process: " + e.getMessage());
+            }
+        }
 
+        if (mode == Utilities.Mode.SVR_SPECULATIVE) {
+            speculativeDownloader = new SpeculativeDownloader();
+        }
         switch (mode) {
             case BASELINE:
-                BaselineNetworkHandler();
+                parseManifest(name);
+                runPipeline(this::BaselineNetworkHandler);
                 break;
             case SVR:
-                SVRNetworkHandler();
-                logger.printProtocol("[STEP 0-2] Receive manifest from VRServer");
+            case SVR_SPECULATIVE:
+                predictor = ViewportPredictor.fromSpec(System.getProperty(ViewportPredictor.PROPERTY,
+                        ViewportPredictor.DEFAULT_SPEC));
+                try {
+                    // only the number of segments is needed, every decision carries the metadata of its path
+                    session = SessionChannel.connect(host, port);
+                    session.sendHello();
+                    session.receive(SessionChannel.MANIFEST);
+                    segmentAmount = session.getSegmentAmount();
+                    logger.printProtocol("[STEP 0-2] Receive segment amount from VRServer: " + segmentAmount);
+                    runPipeline(this::SVRNetworkHandler);
+                    session.sendEnd();
+                    session.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (speculativeDownloader != null) {
+                    speculativeDownloader.shutdown();
+                    System.out.println(speculativeDownloader);
+                }
+                System.out.println("[PARTIAL FETCH] saved bytes: " + partialFetchSavedBytes);
+                System.out.println("[PATH FALLBACK] recoveries: " + pathFallbacks + ", saved bytes: " + pathFallbackSavedBytes);
                 break;
             default:
                 logger.printErr("Should specify mode SVR or BASELINE");
                 System.exit(1);
         }
+
+        if (renderer != null) {
+            renderer.close();
+        }
+        System.out.println(this.store);
+        System.out.println(abr);
+        logger.printLatency(metrics.toString());
+        metrics.close();
+        try {
+            this.store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void downloadFileToFileSystem(String key, String out) {
+        long start = System.nanoTime();
+        AtomicLong fetched = new AtomicLong();
+        try {
+            store.download(key, out, new AtomicLong(), fetched);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        metrics.getDownload().recordSince(start);
+        metrics.addBytes(fetched.get());
+        sampleBandwidth(fetched.get(), start);
+    }
+
+    // a segment served by the player cache says nothing about the bandwidth to the server
+    private void sampleBandwidth(long fetchedBytes, long start) {
+        if (fetchedBytes > 0) {
+            abr.sample(fetchedBytes, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Download the header and the bytes from the GOP that contains the start frame to the end of a
+     * full size segment. Both ranges are written at their original offsets, the skipped GOPs are
+     * left as a hole in the file.
+     *
+     * @param key        key of the full size segment in the segment store.
+     * @param out        path of the downloaded file.
+     * @param gopIndex   key frame index of the full size segment.
+     * @param startFrame the first frame that will be rendered.
+     * @return number of skipped bytes.
+     */
+    private long downloadFromGOPToFileSystem(String key, String out, GOPIndex gopIndex, int startFrame) throws IOException {
+        long start = System.nanoTime();
+        long gopOffset = gopIndex.getGOPOffset(startFrame);
+        AtomicLong fetched = new AtomicLong();
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            raf.setLength(0);
+            store.downloadRanges(key, new long[][]{{0, gopIndex.getHeaderSize()}, {gopOffset, gopIndex.getFileSize()}},
+                    raf, fetched);
+            raf.setLength(gopIndex.getFileSize());
+        }
+        metrics.getDownload().recordSince(start);
+        metrics.addBytes(fetched.get());
+        sampleBandwidth(fetched.get(), start);
+        return gopOffset - gopIndex.getHeaderSize();
     }
 
-    private void downloadFileFromS3ToFileSystem(String key, String out) {
-        S3Object s3Object = s3.getObject(new GetObjectRequest(bucketName, key));
-        InputStream in = s3Object.getObjectContent();
+    private void parseManifest(String name) {
         try {
-            Files.copy(in, Paths.get(out), StandardCopyOption.REPLACE_EXISTING);
+            manifest = SegmentManifest.fetch(store, name, MANIFEST_PATH);
+            segmentAmount = manifest.getVideoSegmentAmount();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void parseManifest() {
-        Gson gson = new Gson();
+    /**
+     * Run the network stage on its own thread and render the downloaded segments on the calling
+     * thread, so that downloading segment N+1..N+depth overlaps with rendering segment N.
+     * With the render daemon, segment N+1 is queued behind segment N as soon as it is downloaded, so
+     * the daemon starts it right after the last frame of N.
+     *
+     * @param networkHandler the network stage.
+     */
+    private void runPipeline(NetworkHandler networkHandler) {
+        Thread networkThread = new Thread(() -> {
+            try {
+                networkHandler.run();
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                prefetchBuffer.close();
+            }
+        }, "network-stage");
+        networkThread.start();
+
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(VRPlayer.MANIFEST_PATH));
-            manifest = gson.fromJson(bufferedReader, VideoSegmentManifest.class);
-        } catch (FileNotFoundException e) {
+            PlaybackSegment segment;
+            Vector<RenderDaemon.Ticket> rendering = null;   // the segment that the daemon plays
+            while ((segment = prefetchBuffer.take()) != null) {
+                if (renderer != null) {
+                    try {
+                        Vector<RenderDaemon.Ticket> queued = segment.queue(renderer);
+                        awaitRender(rendering);
+                        rendering = queued;
+                        continue;
+                    } catch (IOException e) {
+                        System.err.println("[RENDER] Render every segment with its own process: " + e.getMessage());
+                        renderer.close();
+                        renderer = null;
+                    }
+                }
+                awaitRender(rendering);
+                rendering = null;
+                long start = System.nanoTime();
+                segment.render();
+                metrics.getDecode().recordSince(start);
+            }
+            awaitRender(rendering);
+            networkThread.join();
+        } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        System.out.println(prefetchBuffer);
     }
 
-    private void BaselineNetworkHandler() {
-        for (int currSegId = 1; currSegId <= manifest.getVideoSegmentAmount(); currSegId++) {
-            String s3videoFileName = getS3KeyName(FOVProtocol.FULL);
+    // wait until the daemon has played a segment, a segment that cannot be played is skipped
+    private void awaitRender(Vector<RenderDaemon.Ticket> tickets) throws InterruptedException {
+        if (tickets == null) {
+            return;
+        }
+        long renderNanos = 0;
+        try {
+            for (RenderDaemon.Ticket ticket : tickets) {
+                renderNanos += ticket.await();
+            }
+            metrics.getDecode().record(renderNanos);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void BaselineNetworkHandler() throws InterruptedException {
+        for (; currSegId <= segmentAmount; currSegId++) {
+            VideoSegmentManifest.VideoSegmentMetaData segment = manifest.getSegment(currSegId);
+            long[] sizes = new long[segment.getQualityCount()];
+            for (int quality = 0; quality < sizes.length; quality++) {
+                sizes[quality] = segment.getFullSize(quality);
+            }
+            String s3videoFileName = getS3KeyName(FOVProtocol.FULL, abr.select(sizes, prefetchBuffer.size(), 0));
             String clientVideoFilename = Utilities.getClientFullSegmentName(segmentPath, currSegId);
-            downloadFileFromS3ToFileSystem(s3videoFileName, clientVideoFilename);
-            new PlayNative(clientVideoFilename, 0, -1);
+            downloadFileToFileSystem(s3videoFileName, clientVideoFilename);
+            PlaybackSegment playbackSegment = new PlaybackSegment(currSegId);
+            playbackSegment.addRenderTask(clientVideoFilename, 0, -1);
+            prefetchBuffer.put(playbackSegment);
             logger.printProtocol("[STEP 1] SEGMENT #" + currSegId);
         }
     }
 
-    private String getS3KeyName(int predPathMsg) {
+    // path that covers the remaining frames with the smallest known size in a quality, -1 if there is none
+    private static int cheapestPath(boolean[] covers, long[][] pathsSizes, int quality) {
+        int cheapest = -1;
+        for (int i = 0; i < covers.length; i++) {
+            if (covers[i] && quality < pathsSizes[i].length && pathsSizes[i][quality] >= 0
+                    && (cheapest < 0 || pathsSizes[i][quality] < pathsSizes[cheapest][quality])) {
+                cheapest = i;
+            }
+        }
+        return cheapest;
+    }
+
+    private String getS3KeyName(int predPathMsg, int quality) {
+        String representation = Utilities.getRepresentationName(name, quality);
         String videoFileName;
         if (predPathMsg == FOVProtocol.FULL) {
-            videoFileName = Utilities.getServerFullSizeSegmentName(fullSegmentDir, "output", currSegId);
+            videoFileName = Utilities.getServerFullSizeSegmentName(representation + "-full", "output", currSegId);
         } else {
-            videoFileName = Utilities.getServerFOVSegmentName(fovSegmentDir, currSegId, predPathMsg);
+            videoFileName = Utilities.getServerFOVSegmentName(representation + "-fov", currSegId, predPathMsg);
         }
         return videoFileName;
     }
@@ -121,103 +313,190 @@ public class VRPlayer {
     /**
      * Download video segments following svr fov protocol.
      */
-    private void SVRNetworkHandler() {
-        while (currSegId <= manifest.getVideoSegmentAmount()) {
+    private void SVRNetworkHandler() throws IOException, InterruptedException {
+        while (currSegId <= segmentAmount) {
+            PlaybackSegment playbackSegment = new PlaybackSegment(currSegId);
+
             // 1. request fov with the key frame metadata from VRServer
             int keyFrameID = (currSegId - 1) * FRAME_PER_VIDEO_SEGMENT;
-            TCPSerializeSender metadataRequest = new TCPSerializeSender<>(host, port, fovTraces.get(keyFrameID));
-            metadataRequest.request();
+            long decisionStart = System.nanoTime();
+            FOVMetadata envelope = null;
+            if (predictor != null) {
+                // the frames rendered so far and the key frame are known, the rest of the segment is predicted
+                for (; observedFrames <= keyFrameID; observedFrames++) {
+                    predictor.observe(fovTraces.get(observedFrames));
+                }
+                envelope = ViewportPredictor.envelope(predictor, fovTraces.get(keyFrameID), FRAME_PER_VIDEO_SEGMENT);
+            }
+            session.sendFOV(fovTraces.get(keyFrameID), envelope);
             logger.printProtocol("[STEP 1] SEGMENT #" + currSegId + " send metadata to server");
 
             // 2. get response from VRServer which indicate "FULL" or "FOV"
-            TCPSerializeReceiver msgReceiver = new TCPSerializeReceiver<Integer>(host, port);
-            msgReceiver.request();
-            int predPathMsg = (Integer) msgReceiver.getSerializeObj();
-            logger.printProtocol("[STEP 4] get size message: " + FOVProtocol.print(predPathMsg));
+            session.receive(SessionChannel.PATH);
+            metrics.getDecision().recordSince(decisionStart);
+            int predPathMsg = session.getCode();
+            FOVMetadata pathMetadata = session.getFOVMetadata();
+            long[] fullSizes = session.getFullSizes();
+            int quality = abr.select(session.getPathSizes(), prefetchBuffer.size(), System.nanoTime() - decisionStart);
+            logger.printProtocol("[STEP 4] get size message: " + FOVProtocol.print(predPathMsg)
+                    + ", quality " + quality + ", " + session.getPathSizes()[quality] + " bytes");
 
             // 3-1. check whether the other video frames (exclude key frame) does not match fov
             // 3-2. if any frame does not match, request full size video segment from VRServer with "BAD"
             // 3-2  if all the frames matches, send back "GOOD"
             if (FOVProtocol.isFOV(predPathMsg)) {
+                // a key frame that is barely covered predicts a miss, start the full size segment right away
+                SpeculativeDownloader.Handle speculativeFull = null;
+                AtomicLong speculativeFetched = new AtomicLong();
+                double keyFrameMargin = pathMetadata.getOverlapRate(fovTraces.get(keyFrameID)) - FOVProtocol.THRESHOLD;
+                if (speculativeDownloader != null && keyFrameMargin < SPECULATION_MARGIN) {
+                    String s3FullFileName = getS3KeyName(FOVProtocol.FULL,
+                            abr.select(fullSizes, prefetchBuffer.size(), System.nanoTime() - decisionStart));
+                    String clientFullFilename = Utilities.getClientFullSegmentName(segmentPath, currSegId);
+                    logger.printProtocol("[STEP 6] speculatively download full size video segment, margin: " + keyFrameMargin);
+                    speculativeFull = speculativeDownloader.start(clientFullFilename,
+                            progress -> store.download(s3FullFileName, clientFullFilename, progress, speculativeFetched));
+                }
+
                 logger.printProtocol("[STEP 6] download video segment from VRServer");
-                String s3videoFileName = getS3KeyName(predPathMsg);
+                String s3videoFileName = getS3KeyName(predPathMsg, quality);
                 String clientVideoFilename = Utilities.getClientFOVSegmentName(segmentPath, currSegId, predPathMsg);
 
-                logger.startLogTime();
-                downloadFileFromS3ToFileSystem(s3videoFileName, clientVideoFilename);
-                logger.endLogAndPrint();
+                downloadFileToFileSystem(s3videoFileName, clientVideoFilename);
 
-                // compare all the user-fov frames exclude for key frame with the predicted fov
-                Vector<FOVMetadata> pathMetadataVec = manifest.getPredMetaDataVec().get(currSegId).getPathVec();
-                FOVMetadata pathMetadata = pathMetadataVec.get(predPathMsg);
+                // compare all the user-fov frames with the predicted fov until one does not match
                 int secondDownloadMsg = FOVProtocol.GOOD;
-                int totalDecodedFrame = 0;
-
-                // Iterate fov until fovTrace not match
-                for (int i = 0; i < FRAME_PER_VIDEO_SEGMENT; i++) {
-                    FOVMetadata userFov = fovTraces.get(keyFrameID);
-                    double coverRatio = pathMetadata.getOverlapRate(userFov);
-                    if (coverRatio < FOVProtocol.THRESHOLD) {
-                        logger.printProtocol("[DEBUG] fail at keyFrameID: " + keyFrameID);
+                int totalDecodedFrame = fovTraces.coveredFrames(pathMetadata, keyFrameID, FRAME_PER_VIDEO_SEGMENT,
+                        FOVProtocol.THRESHOLD);
+                if (totalDecodedFrame < FRAME_PER_VIDEO_SEGMENT) {
+                    int missedFrameID = keyFrameID + totalDecodedFrame;
+                    logger.printProtocol("[DEBUG] fail at keyFrameID: " + missedFrameID);
+                    if (missedFrameID < fovTraces.size()) {
+                        FOVMetadata userFov = fovTraces.get(missedFrameID);
                         logger.printProtocol("[DEBUG] user fov: " + userFov);
                         logger.printProtocol("[DEBUG] path metadata: " + pathMetadata);
-                        logger.printProtocol("[DEBUG] overlap ratio: " + coverRatio);
-                        secondDownloadMsg = FOVProtocol.BAD;
-                        break;
-                    } else {
-                        keyFrameID++;
-                        totalDecodedFrame++;
+                        logger.printProtocol("[DEBUG] overlap ratio: " + pathMetadata.getOverlapRate(userFov));
                     }
+                    secondDownloadMsg = FOVProtocol.BAD;
                 }
-                new PlayNative(clientVideoFilename, 0, totalDecodedFrame - 1);
+                playbackSegment.addRenderTask(clientVideoFilename, 0, totalDecodedFrame - 1);
 
                 // notify good/bad
-                System.out.println("[STEP 7] " + FOVProtocol.print(secondDownloadMsg));
+                session.sendResult(secondDownloadMsg);
+                logger.printProtocol("[STEP 7] " + FOVProtocol.print(secondDownloadMsg));
 
                 // receive full size video segment if send back BAD
                 if (secondDownloadMsg == FOVProtocol.BAD) {
-                    logger.printProtocol("[STEP 10] Download full size video segment from VRServer");
-                    s3videoFileName = getS3KeyName(FOVProtocol.FULL);
+                    metrics.countBadFallback();
                     clientVideoFilename = Utilities.getClientFullSegmentName(segmentPath, currSegId);
 
-                    logger.startLogTime();
-                    downloadFileFromS3ToFileSystem(s3videoFileName, clientVideoFilename);
-                    logger.endLogAndPrint();
+                    // only fetch from the GOP of the first missed frame if the key frames are known,
+                    // they are only known for the original encoding
+                    session.receive(SessionChannel.PATHS);
+                    session.receive(SessionChannel.GOP);
+                    GOPIndex gopIndex = session.getGOPIndex();
+                    boolean partial = partialFetch && gopIndex != null && totalDecodedFrame > 0;
+                    if (speculativeFull != null) {
+                        logger.printProtocol("[STEP 10] Download full size video segment from VRServer");
+                        long start = System.nanoTime();
+                        speculativeFull.await();
+                        metrics.getDownload().recordSince(start);
+                        metrics.addBytes(speculativeFetched.get());
+                    } else {
+                        long[] fallbackSizes = fullSizes.clone();
+                        if (partial) {
+                            fallbackSizes[0] = gopIndex.getHeaderSize() + gopIndex.getFileSize()
+                                    - gopIndex.getGOPOffset(totalDecodedFrame);
+                        }
+
+                        // another path that covers all the remaining frames may be cheaper than the full size
+                        // fallback, the quality is chosen from the cheaper of both in every quality
+                        Vector<FOVMetadata> paths = session.getPaths();
+                        long[][] pathsSizes = session.getPathsSizes();
+                        boolean[] covers = new PathBatch(paths).coverAll(fovTraces, keyFrameID + totalDecodedFrame,
+                                FRAME_PER_VIDEO_SEGMENT - totalDecodedFrame, FOVProtocol.THRESHOLD);
+                        int[] alternatives = new int[fallbackSizes.length];
+                        long[] recoverySizes = fallbackSizes.clone();
+                        for (int q = 0; q < recoverySizes.length; q++) {
+                            alternatives[q] = cheapestPath(covers, pathsSizes, q);
+                            if (alternatives[q] >= 0 && (recoverySizes[q] < 0
+                                    || pathsSizes[alternatives[q]][q] < recoverySizes[q])) {
+                                recoverySizes[q] = pathsSizes[alternatives[q]][q];
+                            } else {
+                                alternatives[q] = -1;
+                            }
+                        }
+                        int recoveryQuality = abr.select(recoverySizes, prefetchBuffer.size(),
+                                System.nanoTime() - decisionStart);
+                        int alternative = alternatives[recoveryQuality];
+                        if (alternative >= 0) {
+                            logger.printProtocol("[STEP 10] Download video segment of path " + alternative
+                                    + " that covers the remaining frames");
+                            clientVideoFilename = Utilities.getClientFOVSegmentName(segmentPath, currSegId, alternative);
+                            downloadFileToFileSystem(getS3KeyName(alternative, recoveryQuality), clientVideoFilename);
+                            pathFallbacks++;
+                            if (fallbackSizes[recoveryQuality] >= 0) {
+                                pathFallbackSavedBytes += fallbackSizes[recoveryQuality] - recoverySizes[recoveryQuality];
+                            }
+                        } else if (partial && recoveryQuality == 0) {
+                            logger.printProtocol("[STEP 10] Download full size video segment from VRServer");
+                            s3videoFileName = getS3KeyName(FOVProtocol.FULL, recoveryQuality);
+                            partialFetchSavedBytes += downloadFromGOPToFileSystem(s3videoFileName, clientVideoFilename,
+                                    gopIndex, totalDecodedFrame);
+                        } else {
+                            logger.printProtocol("[STEP 10] Download full size video segment from VRServer");
+                            downloadFileToFileSystem(getS3KeyName(FOVProtocol.FULL, recoveryQuality), clientVideoFilename);
+                        }
+                    }
 
                     logger.printProtocol("[DEBUG] Start decode from frame: " + totalDecodedFrame);
-                    new PlayNative(clientVideoFilename, totalDecodedFrame, -1);
+                    playbackSegment.addRenderTask(clientVideoFilename, totalDecodedFrame, -1);
+                } else {
+                    metrics.countFovHit();
+                    if (speculativeFull != null) {
+                        speculativeFull.cancel();
+                    }
                 }
             } else if (FOVProtocol.isFull(predPathMsg)) {
+                metrics.countFullResponse();
                 logger.printProtocol("[STEP 6] download video segment from VRServer");
-                String s3videoFileName = getS3KeyName(FOVProtocol.FULL);
+                String s3videoFileName = getS3KeyName(FOVProtocol.FULL, quality);
                 String clientVideoFilename = Utilities.getClientFullSegmentName(segmentPath, currSegId);
 
-                logger.startLogTime();
-                downloadFileFromS3ToFileSystem(s3videoFileName, clientVideoFilename);
-                logger.endLogAndPrint();
-                new PlayNative(clientVideoFilename, 0, -1);
+                downloadFileToFileSystem(s3videoFileName, clientVideoFilename);
+                playbackSegment.addRenderTask(clientVideoFilename, 0, -1);
             } else {
                 // should never go here
                 assert (false);
             }
 
+            prefetchBuffer.put(playbackSegment);
             logger.printProtocol("---------------------------------------------------------");
             currSegId++;
         }
     }
 
     /**
-     * Example: java VRPlayer localhost 1988 tmp rhino SVR
+     * Example: java VRPlayer localhost 1988 tmp rhino SVR [prefetch depth] [segment store] [cache memory MB] [cache disk MB]
+     * The segment store is s3 by default, see {@link SegmentStore#fromSpec(String)}.
      *
      * @param args command line args.
      */
     public static void main(String[] args) {
         Logger logger = new Logger(false, true, false);
-        VRPlayer vrPlayer = new VRPlayer(args[0],
-                Integer.parseInt(args[1]),
-                args[2],
-                args[3],
-                Utilities.string2mode(args[4]),
-                logger);
+        try {
+            VRPlayer vrPlayer = new VRPlayer(args[0],
+                    Integer.parseInt(args[1]),
+                    args[2],
+                    args[3],
+                    Utilities.string2mode(args[4]),
+                    args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_PREFETCH_DEPTH,
+                    SegmentStore.fromSpec(args.length > 6 ? args[6] : DEFAULT_SEGMENT_STORE),
+                    (args.length > 7 ? Long.parseLong(args[7]) : DEFAULT_CACHE_MEMORY_MB) * 1024 * 1024,
+                    (args.length > 8 ? Long.parseLong(args[8]) : DEFAULT_CACHE_DISK_MB) * 1024 * 1024,
+                    logger);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -1,30 +1,32 @@
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
-import com.google.gson.Gson;
-
 import java.io.*;
-import java.net.ServerSocket;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.Vector;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This object is a server sending fullSizeManifest file and video segments to VRPlayer.
+ * Each connected VRPlayer is served concurrently by its own SVRSession.
  */
 public class VRServer implements Runnable {
-    private static final String fullSizeManifestName = "server-full.txt";
-    private static final String bucketName = "vros-video-segments";
+    private static final String fullSizeManifestName = "server-full";  // .bin or .txt is appended
+    private static final String DEFAULT_SEGMENT_STORE = "s3";
+    private static final long DEFAULT_CACHE_MB = 256;
 
-    private ServerSocket ss;
-    private VideoSegmentManifest fullSizeManifest;
+    private ServerSocketChannel ss;
+    private SegmentManifest fullSizeManifest;
     private Utilities.Mode mode;
-    private AmazonS3 s3;
-    private String manifestFilename;
+    private SegmentStore store;
+    private OffHeapSegmentCache cache;  // null if disabled
+    private String name;
+    private ExecutorService sessionExecutor;
+    private Map<String, Long> segmentSizes;
+    private ProtocolMetrics metrics;
+    private MissModel missModel;
 
     /**
      * Setup a VRServer object that waiting for connections from VRPlayer.
@@ -32,99 +34,104 @@ public class VRServer implements Runnable {
      * @param port            Port of the VRServer.
      * @param filename        Name of the video.
      * @param mode            Choose which mode to run, SVR or BASELINE for now.
+     * @param store           Storage of the manifest and video segments.
+     * @param cacheCapacity   Bytes of the hot segments cached off-heap, 0 disables the cache.
      */
-    public VRServer(int port, String filename, Utilities.Mode mode) {
+    public VRServer(int port, String filename, Utilities.Mode mode, SegmentStore store, long cacheCapacity) {
         // init
         this.mode = mode;
-        this.s3 = new AmazonS3Client();
-        this.s3.setRegion(Region.getRegion(Regions.US_EAST_1));
-        this.manifestFilename = filename + "-manifest.txt";
+        this.store = store;
+        if (cacheCapacity > 0) {
+            this.cache = new OffHeapSegmentCache(store, cacheCapacity);
+            this.store = cache;
+        }
+        this.name = filename;
+        this.segmentSizes = new ConcurrentHashMap<>();
+        this.metrics = ProtocolMetrics.export("server");
+        if (cache != null) {
+            metrics.setCache(cache);
+        }
+        this.missModel = new MissModel();
+        this.sessionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "svr-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-        downloadFileFromS3ToFileSystem(manifestFilename, fullSizeManifestName);
-        parseManifest(fullSizeManifestName);
+        parseManifest();
 
         // setup a tcp server socket that waiting for sending files
         try {
-            ss = new ServerSocket(port);
+            ss = ServerSocketChannel.open();
+            ss.bind(new InetSocketAddress(port));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void downloadFileFromS3ToFileSystem(String key, String out) {
-        S3Object s3Object = s3.getObject(new GetObjectRequest(bucketName, key));
-        InputStream in = s3Object.getObjectContent();
+    private void parseManifest() {
         try {
-            Files.copy(in, Paths.get(out), StandardCopyOption.REPLACE_EXISTING);
+            fullSizeManifest = SegmentManifest.fetch(store, name, fullSizeManifestName);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void parseManifest(String path) {
-        Gson gson = new Gson();
-        try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(path));
-            fullSizeManifest = gson.fromJson(bufferedReader, VideoSegmentManifest.class);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Accept the connection from VRPlayer and then send the fullSizeManifest file or video segments.
      */
     public void run() {
         switch (mode) {
+            // a BASELINE server only serves the video segments to the players using direct-serve mode,
+            // SVR_SPECULATIVE only changes how VRPlayer downloads
             case BASELINE:
-                break;
             case SVR:
+            case SVR_SPECULATIVE:
                 runSVRProtocol();
                 break;
+            default:
+                System.err.println("Should specify mode SVR, SVR_SPECULATIVE or BASELINE");
+                System.exit(1);
         }
     }
 
+    /**
+     * Accept VRPlayers forever, every player is served by its own SVRSession on the session executor.
+     */
     private void runSVRProtocol() {
+        int sessionId = 0;
         while (true) {
-            // send video segments
-            for (int segId = 1; segId <= fullSizeManifest.getVideoSegmentAmount(); segId++) {
-                // Get user fov metadata (only for key frame)
-                TCPSerializeReceiver<FOVMetadata> fovMetadataTCPSerializeReceiver = new TCPSerializeReceiver<>(ss);
-                fovMetadataTCPSerializeReceiver.request();
-
-                // Inspect storage fullSizeManifest to know if there is a matched video segment,
-                // if yes, send the most-match FOV,
-                // if no, send FULL.
-                FOVMetadata userFOVMetaData = fovMetadataTCPSerializeReceiver.getSerializeObj();
-                System.out.println("[[STEP 2 SEGMENT #" + segId + "]] Get user fov: " + userFOVMetaData);
-                Vector<FOVMetadata> pathMetadataVec = fullSizeManifest.getPredMetaDataVec().get(segId).getPathVec();
-                int sizeMsg = FOVProtocol.FULL;
-                for (int i = 0; i < pathMetadataVec.size(); i++) {
-                    FOVMetadata pathMetadata = pathMetadataVec.get(i);
-                    double ratio = pathMetadata.getOverlapRate(userFOVMetaData);
-                    if (ratio >= FOVProtocol.THRESHOLD) {
-                        sizeMsg = i;
-                        break;
-                    }
-                }
-
-                TCPSerializeSender<Integer> pathMsgRequest = new TCPSerializeSender<>(this.ss, sizeMsg);
-                pathMsgRequest.request();
-                System.out.println("[STEP 3] send video path msg: " + sizeMsg);
-                System.out.println("---------------------------------------------------------");
+            try {
+                SessionChannel session = SessionChannel.accept(ss);
+                sessionId++;
+                System.out.println("[SESSION " + sessionId + "] accept " + session);
+                sessionExecutor.execute(new SVRSession(sessionId, session, fullSizeManifest, store, name, segmentSizes,
+                        metrics, missModel));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            break;
         }
     }
 
     /**
-     * Example: java VRServer 1988 storage/rhino output storage/rhinos-pred.txt
-     * The file name in the storage/rhino should be constructed as {storageFilename}_number.mp4.
+     * Example: java VRServer 1988 rhino SVR [segment store] [cache MB]
+     * The segment store is s3 by default, see {@link SegmentStore#fromSpec(String)}.
      *
      * @param args command line args.
      */
     public static void main(String[] args) {
-        VRServer vrServer = new VRServer(Integer.parseInt(args[0]), args[1], Utilities.string2mode(args[2]));
-        vrServer.run();
+        try {
+            VRServer vrServer = new VRServer(Integer.parseInt(args[0]), args[1], Utilities.string2mode(args[2]),
+                    SegmentStore.fromSpec(args.length > 3 ? args[3] : DEFAULT_SEGMENT_STORE),
+                    (args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_CACHE_MB) * 1024 * 1024);
+            vrServer.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -3,37 +3,243 @@ import com.google.gson.*;
 import java.io.*;
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.stream.IntStream;
 
 // TODO fix for paris and nyc
 
 /**
  * This class handles the creation and parsing of manifest files. The manifest file includes the file size of all the
- * video segments.
+ * video segments, and the byte offsets of the key frames of the full size segments.
+ * The sizes of the lower quality representations of the video, name-q1-full, name-q2-full... next to name-full, are
+ * listed too.
  */
-public class VideoSegmentManifest implements Serializable {
+public class VideoSegmentManifest implements SegmentManifest, Serializable {
     private int length;
     private Vector<VideoSegmentMetaData> predMetaDataVec;
 
-    public class VideoSegmentMetaData {
+    public static class VideoSegmentMetaData {
         private Vector<FOVMetadata> pathVec;
+        private GOPIndex gopIndex;      // key frames of the full size segment, null if unknown
+        private long[] pathSizes;       // byte size of the fov segment of every path, -1 if missing, null if unknown
+        private long fullSize;          // byte size of the full size segment, 0 if unknown
+        private Vector<Representation> representations;    // quality 1 and lower, null if there is one quality
+        private transient PathIndex pathIndex;
 
         VideoSegmentMetaData(Vector<FOVMetadata> pathVec) {
+            this(pathVec, null);
+        }
+
+        VideoSegmentMetaData(Vector<FOVMetadata> pathVec, GOPIndex gopIndex) {
+            this(pathVec, gopIndex, null, 0);
+        }
+
+        VideoSegmentMetaData(Vector<FOVMetadata> pathVec, GOPIndex gopIndex, long[] pathSizes, long fullSize) {
+            this(pathVec, gopIndex, pathSizes, fullSize, null);
+        }
+
+        VideoSegmentMetaData(Vector<FOVMetadata> pathVec, GOPIndex gopIndex, long[] pathSizes, long fullSize,
+                             Vector<Representation> representations) {
             this.pathVec = pathVec;
+            this.gopIndex = gopIndex;
+            this.pathSizes = pathSizes;
+            this.fullSize = fullSize;
+            this.representations = representations;
+            this.pathIndex = new PathIndex(pathVec);
         }
 
         public Vector<FOVMetadata> getPathVec() {
             return pathVec;
         }
+
+        public GOPIndex getGopIndex() {
+            return gopIndex;
+        }
+
+        /**
+         * Get the byte size of the fov segment of a path.
+         *
+         * @param pathId path id.
+         * @return byte size, -1 if unknown.
+         */
+        public long getPathSize(int pathId) {
+            return pathSizes == null || pathId >= pathSizes.length ? -1 : pathSizes[pathId];
+        }
+
+        /**
+         * Get the byte size of the full size segment.
+         *
+         * @return byte size, -1 if unknown.
+         */
+        public long getFullSize() {
+            return fullSize > 0 ? fullSize : -1;
+        }
+
+        long[] getPathSizes() {
+            return pathSizes;
+        }
+
+        /**
+         * Get the number of quality representations of the segment.
+         *
+         * @return 1 for the original encoding only.
+         */
+        public int getQualityCount() {
+            return representations == null ? 1 : representations.size() + 1;
+        }
+
+        /**
+         * Get the byte size of the fov segment of a path in a quality representation.
+         *
+         * @param pathId  path id.
+         * @param quality 0 for the original encoding, see {@link Utilities#getRepresentationName(String, int)}.
+         * @return byte size, -1 if unknown.
+         */
+        public long getPathSize(int pathId, int quality) {
+            return quality == 0 ? getPathSize(pathId) : representations.get(quality - 1).getPathSize(pathId);
+        }
+
+        /**
+         * Get the byte size of the full size segment in a quality representation.
+         *
+         * @param quality 0 for the original encoding, see {@link Utilities#getRepresentationName(String, int)}.
+         * @return byte size, -1 if unknown.
+         */
+        public long getFullSize(int quality) {
+            return quality == 0 ? getFullSize() : representations.get(quality - 1).getFullSize();
+        }
+
+        /**
+         * Choose the path with the least expected bytes among the paths that cover the user fov with at
+         * least the threshold, and FULL. The expected bytes of a path are its size plus its miss
+         * probability times the size of the full size segment. Without the byte sizes in the manifest,
+         * the path is matched with {@link #matchPath(FOVMetadata, FOVMetadata, double)}.
+         *
+         * @param userFov   user fov metadata of the key frame.
+         * @param envelope  envelope of the predicted viewports, null if VRPlayer sends none.
+         * @param threshold minimum overlap rate, should be larger than 0.5.
+         * @param missModel miss probability of a path.
+         * @return path id, or {@link FOVProtocol#FULL}.
+         */
+        public int choosePath(FOVMetadata userFov, FOVMetadata envelope, double threshold, MissModel missModel) {
+            if (pathSizes == null || fullSize <= 0) {
+                return matchPath(userFov, envelope, threshold);
+            }
+            int best = FOVProtocol.FULL;
+            double bestCost = fullSize;
+            for (int pathId : pathIndex.matchAll(userFov, threshold)) {
+                if (getPathSize(pathId) < 0) {
+                    continue;
+                }
+                double cost = getPathSize(pathId)
+                        + missModel.getMissProbability(getCover(pathId, userFov, envelope)) * fullSize;
+                if (cost < bestCost) {
+                    best = pathId;
+                    bestCost = cost;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Get the feature of a path decision that {@link MissModel} learns from.
+         *
+         * @param pathId   path id.
+         * @param userFov  user fov metadata of the key frame.
+         * @param envelope envelope of the predicted viewports, null if VRPlayer sends none.
+         * @return overlap rate of the path with the envelope, or with the user fov without an envelope.
+         */
+        public double getCover(int pathId, FOVMetadata userFov, FOVMetadata envelope) {
+            return pathIndex.getPathBatch().overlapRate(pathId, envelope != null ? envelope : userFov);
+        }
+
+        /**
+         * Find the first path that covers the user fov with at least {@link FOVProtocol#THRESHOLD}.
+         *
+         * @param userFov user fov metadata.
+         * @return path id, or {@link FOVProtocol#FULL} if no path matches.
+         */
+        public int matchPath(FOVMetadata userFov) {
+            return matchPath(userFov, FOVProtocol.THRESHOLD);
+        }
+
+        /**
+         * Find the first path that covers the user fov with at least the given threshold.
+         *
+         * @param userFov   user fov metadata.
+         * @param threshold minimum overlap rate, should be larger than 0.5.
+         * @return path id, or {@link FOVProtocol#FULL} if no path matches.
+         */
+        public int matchPath(FOVMetadata userFov, double threshold) {
+            return pathIndex.match(userFov, threshold);
+        }
+
+        /**
+         * Find the path that covers the user fov with at least the threshold and covers the largest part
+         * of the envelope of the viewports predicted for the segment.
+         *
+         * @param userFov   user fov metadata of the key frame.
+         * @param envelope  envelope of the predicted viewports, null to take the first matching path.
+         * @param threshold minimum overlap rate, should be larger than 0.5.
+         * @return path id, or {@link FOVProtocol#FULL} if no path matches.
+         */
+        public int matchPath(FOVMetadata userFov, FOVMetadata envelope, double threshold) {
+            return envelope == null ? matchPath(userFov, threshold) : pathIndex.match(userFov, threshold, envelope);
+        }
+
+        /**
+         * Get the paths as primitive columns for scoring viewports in a batch.
+         *
+         * @return paths of the segment.
+         */
+        public PathBatch getPathBatch() {
+            return pathIndex.getPathBatch();
+        }
+    }
+
+    /**
+     * Byte sizes of a video segment in a lower quality representation.
+     */
+    public static class Representation {
+        private long[] pathSizes;       // byte size of the fov segment of every path, -1 if missing, null if unknown
+        private long fullSize;          // byte size of the full size segment, 0 if unknown
+
+        Representation(long[] pathSizes, long fullSize) {
+            this.pathSizes = pathSizes;
+            this.fullSize = fullSize;
+        }
+
+        public long getPathSize(int pathId) {
+            return pathSizes == null || pathId >= pathSizes.length ? -1 : pathSizes[pathId];
+        }
+
+        public long getFullSize() {
+            return fullSize > 0 ? fullSize : -1;
+        }
     }
 
     /**
      * Create a manifest object using all the video segment file size and the object-predicted trace file.
      * The filename of video segments in the storagePath should follow the pattern: storagePath/name_{num}.mp4
+     * The fov segments are looked up in name-fov next to name-full, the lower quality representations in
+     * name-q1-full and name-q1-fov, name-q2-full and name-q2-fov...
      *
      * @param storagePath     should be a path to a directory.
      * @param predFilePath    path to a object detection file of the video.
      */
     public VideoSegmentManifest(String storagePath, String predFilePath) {
+        this(storagePath, storagePath.replaceAll("-full/?$", "-fov"), predFilePath);
+    }
+
+    /**
+     * Create a manifest object using all the video segment file size and the object-predicted trace file.
+     * The filename of video segments in the storagePath should follow the pattern: storagePath/name_{num}.mp4
+     * and the fov segments in fovStoragePath: fovStoragePath/{num}/{path id}.mp4
+     *
+     * @param storagePath     should be a path to a directory.
+     * @param fovStoragePath  path to the directory of the fov segments.
+     * @param predFilePath    path to a object detection file of the video.
+     */
+    public VideoSegmentManifest(String storagePath, String fovStoragePath, String predFilePath) {
         Vector<Vector<FOVMetadata>> fovMetadata2DVec = parsePredFile(predFilePath);
 
         // get video segment size and feed into
@@ -53,11 +259,22 @@ public class VideoSegmentManifest implements Serializable {
                 String f2name = f2.getName();
                 return Utilities.getIdFromFullSizeSegmentName(f1name) - Utilities.getIdFromFullSizeSegmentName(f2name);
             });
-            for (File f : dirList) {
-                int size = predMetaDataVec.size();
-                //System.out.println("gg " + Utilities.getIdFromFullSizeSegmentName(f.getName()));
-                predMetaDataVec.add(new VideoSegmentMetaData(fovMetadata2DVec.get(size)));
-            }
+            int qualityCount = getQualityCount(storagePath);
+            // the key frames and the sizes of every segment are read in parallel
+            VideoSegmentMetaData[] segments = new VideoSegmentMetaData[dirList.length];
+            IntStream.range(0, dirList.length).parallel().forEach(i -> {
+                Vector<FOVMetadata> pathVec = fovMetadata2DVec.get(i + 1);
+                Vector<Representation> representations = null;
+                if (qualityCount > 1) {
+                    representations = new Vector<>();
+                    for (int quality = 1; quality < qualityCount; quality++) {
+                        representations.add(getRepresentation(storagePath, quality, i + 1, pathVec));
+                    }
+                }
+                segments[i] = new VideoSegmentMetaData(pathVec, parseGOPIndex(dirList[i]),
+                        getPathSizes(fovStoragePath, i + 1, pathVec), dirList[i].length(), representations);
+            });
+            predMetaDataVec.addAll(Arrays.asList(segments));
         } else {
             System.err.println(storagePath + " should be a directory!");
             System.exit(1);
@@ -66,39 +283,71 @@ public class VideoSegmentManifest implements Serializable {
         this.length = predMetaDataVec.size();
     }
 
+    // byte size of the fov segment of every path, -1 if the segment is missing, null if all are missing
+    private static long[] getPathSizes(String fovStoragePath, int segId, Vector<FOVMetadata> pathVec) {
+        long[] sizes = new long[pathVec.size()];
+        boolean found = false;
+        for (int pathId = 0; pathId < sizes.length; pathId++) {
+            File fovSegment = new File(Utilities.getServerFOVSegmentName(fovStoragePath, segId, pathId));
+            sizes[pathId] = fovSegment.isFile() ? fovSegment.length() : -1;
+            found |= sizes[pathId] >= 0;
+        }
+        return found ? sizes : null;
+    }
+
+    // number of quality representations, name-q1-full, name-q2-full... are looked up next to name-full
+    private static int getQualityCount(String storagePath) {
+        if (!storagePath.matches(".*-full/?$")) {
+            return 1;
+        }
+        int quality = 1;
+        while (new File(getRepresentationPath(storagePath, quality, "-full")).isDirectory()) {
+            quality++;
+        }
+        return quality;
+    }
+
+    private static String getRepresentationPath(String storagePath, int quality, String suffix) {
+        return storagePath.replaceAll("-full/?$", "-q" + quality + suffix);
+    }
+
+    // byte sizes of a segment in a lower quality representation
+    private static Representation getRepresentation(String storagePath, int quality, int segId,
+                                                    Vector<FOVMetadata> pathVec) {
+        File fullSegment = new File(Utilities.getServerFullSizeSegmentName(
+                getRepresentationPath(storagePath, quality, "-full"), "output", segId));
+        return new Representation(getPathSizes(getRepresentationPath(storagePath, quality, "-fov"), segId, pathVec),
+                fullSegment.isFile() ? fullSegment.length() : 0);
+    }
+
+    // index the key frames of a full size segment, null if it is not a readable mp4 file
+    private static GOPIndex parseGOPIndex(File segment) {
+        try {
+            return GOPIndex.fromMp4(segment);
+        } catch (IOException e) {
+            System.err.println("No key frame index for " + segment + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     // parse predict file metadata into fovMetadata2DVec.
-    private Vector<Vector<FOVMetadata>> parsePredFile(String predFileName) {
-        File predFile = new File(predFileName);
-        Vector<Vector<FOVMetadata>> fovMetadata2DVec = new Vector<>();
+    static Vector<Vector<FOVMetadata>> parsePredFile(String predFileName) {
+        return PredFileParser.parse(predFileName);
+    }
 
-        fovMetadata2DVec.add(null);
-        if (predFile.exists()) {
-            try {
-                FileReader fileReader = new FileReader(predFile);
-                BufferedReader bufferedReader = new BufferedReader(fileReader);
-                String line;
-                Vector<FOVMetadata> fovMetadataVec = new Vector<>();
-                int last_id = 1;
-                while ((line = bufferedReader.readLine()) != null) {
-                    String[] columns = line.split("\\s");
-                    int id = Integer.parseInt(columns[0]);
-                    int pathId = Integer.parseInt(columns[1]);
-
-                    if (pathId == 0) {
-                        if (id == last_id) {
-                            last_id = id;
-                        } else  {
-                            fovMetadata2DVec.add(fovMetadataVec);
-                            fovMetadataVec = new Vector<>();
-                        }
-                    }
-                    fovMetadataVec.add(new FOVMetadata(line, FOVProtocol.FOV_SIZE_WIDTH, FOVProtocol.FOV_SIZE_HEIGHT));
-                }
-            } catch (IOException ioe) {
-                ioe.printStackTrace();
-            }
+    /**
+     * Parse a manifest file and build the path index of every video segment.
+     *
+     * @param reader reader of the json manifest file.
+     * @return the parsed manifest.
+     */
+    public static VideoSegmentManifest fromJson(Reader reader) {
+        Gson gson = new Gson();
+        VideoSegmentManifest manifest = gson.fromJson(reader, VideoSegmentManifest.class);
+        for (VideoSegmentMetaData segment : manifest.predMetaDataVec) {
+            segment.pathIndex = new PathIndex(segment.pathVec);
         }
-        return fovMetadata2DVec;
+        return manifest;
     }
 
     /**
@@ -116,15 +365,16 @@ public class VideoSegmentManifest implements Serializable {
         writer.close();
     }
 
-    /**
-     * Get the total number of video segments.
-     *
-     * @return the total of video segments.
-     */
+    @Override
     public int getVideoSegmentAmount() {
         return predMetaDataVec.size() - 1;
     }
 
+    @Override
+    public VideoSegmentMetaData getSegment(int segId) {
+        return predMetaDataVec.get(segId);
+    }
+
 
     @Override
     public String toString() {
@@ -159,6 +409,7 @@ public class VideoSegmentManifest implements Serializable {
             VideoSegmentManifest fullSizeManifest = new VideoSegmentManifest(full_size_path, det_file);
             try {
                 fullSizeManifest.write(out);
+                BinaryManifest.write(fullSizeManifest, args[0] + "-manifest.bin");
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -169,17 +420,16 @@ public class VideoSegmentManifest implements Serializable {
             name_list.add("paris");
             name_list.add("nyc");
             name_list.add("roller");
-            for (String name : name_list) {
-                full_size_path = name + "-full";
-                det_file = name + ".txt";
-                out = name + "-manifest.txt";
-                VideoSegmentManifest fullSizeManifest = new VideoSegmentManifest(full_size_path, det_file);
+            // the videos are independent, build their manifests in parallel
+            name_list.parallelStream().forEach(name -> {
+                VideoSegmentManifest fullSizeManifest = new VideoSegmentManifest(name + "-full", name + ".txt");
                 try {
-                    fullSizeManifest.write(out);
+                    fullSizeManifest.write(name + "-manifest.txt");
+                    BinaryManifest.write(fullSizeManifest, name + "-manifest.bin");
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-            }
+            });
         }
     }
 }
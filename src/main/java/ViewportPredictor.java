@@ -0,0 +1,104 @@
+/**
+ * Head motion prediction of VRPlayer. The predictor observes the viewport of every rendered frame and
+ * extrapolates the viewports of the coming frames, so that the FOV frame of a segment can carry the
+ * envelope of the whole segment instead of only its key frame.
+ *
+ * Horizontal positions wrap around at {@link FOVProtocol#FULL_SIZE_WIDTH}: a move across the seam
+ * of the equirectangular frame is a small move, not a jump over the whole frame.
+ */
+public interface ViewportPredictor {
+    // system property of VRPlayer choosing the predictor, see fromSpec
+    String PROPERTY = "svr.predictor";
+    String DEFAULT_SPEC = "linear";
+
+    /**
+     * Observe the viewport of the next frame, frames have to be observed in order.
+     *
+     * @param viewport user fov metadata.
+     */
+    void observe(FOVMetadata viewport);
+
+    /**
+     * Predict the viewport a number of frames after the last observed one.
+     *
+     * @param frames number of frames ahead, at least 1.
+     * @return predicted viewport with the size of the last observed one, or null if nothing is observed yet.
+     */
+    FOVMetadata predict(int frames);
+
+    /**
+     * Create a predictor.
+     *
+     * @param spec "linear", "kalman" or "none".
+     * @return the predictor, or null for "none".
+     */
+    static ViewportPredictor fromSpec(String spec) {
+        switch (spec) {
+            case "none":
+                return null;
+            case "linear":
+                return new LinearViewportPredictor();
+            case "kalman":
+                return new KalmanViewportPredictor();
+            default:
+                throw new IllegalArgumentException("Unknown viewport predictor: " + spec);
+        }
+    }
+
+    /**
+     * Compute the envelope of a key frame and the viewports predicted for the other frames of its segment.
+     *
+     * @param predictor predictor that observed the frames up to the key frame.
+     * @param keyFrame  user fov metadata of the key frame.
+     * @param frames    number of frames of the segment.
+     * @return rectangle that contains all the viewports, it may cross the right edge of the frame.
+     */
+    static FOVMetadata envelope(ViewportPredictor predictor, FOVMetadata keyFrame, int frames) {
+        int minX = 0;
+        int maxX = keyFrame.getWidth();
+        int minY = keyFrame.getY();
+        int maxY = keyFrame.getY() + keyFrame.getHeight();
+        for (int i = 1; i < frames; i++) {
+            FOVMetadata viewport = predictor.predict(i);
+            // x relative to the key frame, through the shorter way around the frame
+            int dx = wrapDelta(viewport.getX() - keyFrame.getX());
+            minX = Math.min(minX, dx);
+            maxX = Math.max(maxX, dx + viewport.getWidth());
+            minY = Math.min(minY, viewport.getY());
+            maxY = Math.max(maxY, viewport.getY() + viewport.getHeight());
+        }
+        minY = Math.max(0, minY);
+        maxY = Math.min(FOVProtocol.FULL_SIZE_HEIGHT, maxY);
+        return new FOVMetadata(keyFrame.getId(), FOVMetadata.EMPTY,
+                Math.floorMod(keyFrame.getX() + minX, FOVProtocol.FULL_SIZE_WIDTH), minY,
+                Math.min(FOVProtocol.FULL_SIZE_WIDTH, maxX - minX), maxY - minY);
+    }
+
+    /**
+     * Map a horizontal distance to the shorter way around the frame.
+     *
+     * @param dx distance in pixels.
+     * @return distance in [-FULL_SIZE_WIDTH / 2, FULL_SIZE_WIDTH / 2).
+     */
+    static int wrapDelta(int dx) {
+        return Math.floorMod(dx + FOVProtocol.FULL_SIZE_WIDTH / 2, FOVProtocol.FULL_SIZE_WIDTH)
+                - FOVProtocol.FULL_SIZE_WIDTH / 2;
+    }
+
+    /**
+     * Build a predicted viewport from a position that may be outside of the frame.
+     *
+     * @param last   last observed viewport, gives the size.
+     * @param x      predicted x, wrapped into the frame.
+     * @param y      predicted y, clamped into the frame.
+     * @param frames number of frames after the last observed one.
+     * @return predicted viewport.
+     */
+    static FOVMetadata viewport(FOVMetadata last, double x, double y, int frames) {
+        int height = last.getHeight();
+        int clampedY = (int) Math.round(Math.max(0, Math.min(FOVProtocol.FULL_SIZE_HEIGHT - height, y)));
+        return new FOVMetadata(last.getId() + frames, FOVMetadata.EMPTY,
+                (int) Math.floorMod(Math.round(x), (long) FOVProtocol.FULL_SIZE_WIDTH), clampedY,
+                last.getWidth(), height);
+    }
+}